@@ -0,0 +1,80 @@
+package com.prettybyte.hexagons;
+
+import java.util.Random;
+
+/**
+ * Creates the maps used by the benchmarks. The maps are rectangles in offset coordinates, like the maps
+ * generated from an Image.
+ */
+public class BenchmarkMaps {
+
+    public enum Terrain {
+        /**
+         * No obstacles at all
+         */
+        OPEN,
+        /**
+         * Walls across the map with an opening at alternating ends, so that the path has to zigzag
+         */
+        MAZE,
+        /**
+         * A wall through the middle of the map without any opening
+         */
+        NO_PATH,
+        /**
+         * 10% of the Hexagons are obstacles (always the same ones)
+         */
+        SCATTERED
+    }
+
+    private BenchmarkMaps() {
+    }
+
+    static int getSide(int size) {
+        return (int) Math.sqrt(size);
+    }
+
+    static HexagonMap create(int size, Terrain terrain) {
+        int side = getSide(size);
+        HexagonMap map = new HexagonMap(10);
+        Random random = new Random(1);
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                Hexagon hexagon = map.addHexagon(new Hexagon(toQ(x, y), y));
+                boolean isObstacle = false;
+                switch (terrain) {
+                    case MAZE:
+                        boolean isWallColumn = x % 8 == 4;
+                        boolean isOpening = (x / 8) % 2 == 0 ? y == side - 1 : y == 0;
+                        isObstacle = isWallColumn && !isOpening;
+                        break;
+                    case NO_PATH:
+                        isObstacle = x == side / 2;
+                        break;
+                    case SCATTERED:
+                        isObstacle = random.nextInt(10) == 0;
+                        break;
+                    default:
+                }
+                hexagon.setIsBlockingPath(isObstacle);
+                hexagon.setIsVisualObstacle(isObstacle);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the Hexagon at the offset coordinates x, y
+     */
+    static Hexagon get(HexagonMap map, int x, int y) {
+        try {
+            return map.getHexagon(toQ(x, y), y);
+        } catch (NoHexagonFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int toQ(int x, int y) {
+        return x - (y - (y & 1)) / 2;
+    }
+}
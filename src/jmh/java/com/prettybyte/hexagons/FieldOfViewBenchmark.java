@@ -0,0 +1,48 @@
+package com.prettybyte.hexagons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates the visible Hexagons from the center of a map where some Hexagons block the view
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FieldOfViewBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"5", "15"})
+    int range;
+
+    private Hexagon center;
+
+    @Setup
+    public void setUp() {
+        HexagonMap map = BenchmarkMaps.create(size, BenchmarkMaps.Terrain.SCATTERED);
+        int side = BenchmarkMaps.getSide(size);
+        center = BenchmarkMaps.get(map, side / 2, side / 2);
+    }
+
+    @Benchmark
+    public ArrayList<Hexagon> getVisibleHexes() {
+        return center.getVisibleHexes(range);
+    }
+}
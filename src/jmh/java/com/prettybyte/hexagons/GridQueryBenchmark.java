@@ -0,0 +1,81 @@
+package com.prettybyte.hexagons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ring, area, line and lookup queries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GridQueryBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"10"})
+    int radius;
+
+    private HexagonMap map;
+    private Hexagon center;
+    private Hexagon lineStart;
+    private Hexagon lineEnd;
+    private final int[] lookupQ = new int[LOOKUPS];
+    private final int[] lookupR = new int[LOOKUPS];
+    private int nextLookup;
+
+    @Setup
+    public void setUp() {
+        map = BenchmarkMaps.create(size, BenchmarkMaps.Terrain.OPEN);
+        int side = BenchmarkMaps.getSide(size);
+        center = BenchmarkMaps.get(map, side / 2, side / 2);
+        lineStart = BenchmarkMaps.get(map, 0, 0);
+        lineEnd = BenchmarkMaps.get(map, side - 1, side - 1);
+        Random random = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            Hexagon hexagon = BenchmarkMaps.get(map, random.nextInt(side), random.nextInt(side));
+            lookupQ[i] = hexagon.getQ();
+            lookupR[i] = hexagon.getR();
+        }
+    }
+
+    @Benchmark
+    public ArrayList<Hexagon> getHexagonsOnRingEdge() {
+        return center.getHexagonsOnRingEdge(radius);
+    }
+
+    @Benchmark
+    public ArrayList<Hexagon> getHexagonsInRingArea() {
+        return center.getHexagonsInRingArea(radius);
+    }
+
+    @Benchmark
+    public ArrayList<Hexagon> getLine() {
+        return center.getLine(lineStart, lineEnd);
+    }
+
+    @Benchmark
+    public Hexagon getHexagon() throws NoHexagonFoundException {
+        int i = nextLookup++ & (LOOKUPS - 1);
+        return map.getHexagon(lookupQ[i], lookupR[i]);
+    }
+}
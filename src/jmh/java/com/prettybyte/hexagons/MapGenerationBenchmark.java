@@ -0,0 +1,53 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.image.WritableImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a HexagonMap from an Image. The map widths give roughly 1k, 100k and 1M Hexagons.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MapGenerationBenchmark {
+
+    private static final int IMAGE_SIZE = 2048;
+
+    @Param({"30", "295", "930"})
+    int mapWidth;
+
+    @Param({"CENTER_PIXEL", "AREA_AVERAGE"})
+    HexagonMap.ImageSampling sampling;
+
+    private WritableImage image;
+
+    @Setup
+    public void setUp() {
+        image = new WritableImage(IMAGE_SIZE, IMAGE_SIZE);
+        for (int y = 0; y < IMAGE_SIZE; y++) {
+            for (int x = 0; x < IMAGE_SIZE; x++) {
+                image.getPixelWriter().setArgb(x, y, 0xff000000 | ((x * 7919 + y * 104729) & 0xffffff));
+            }
+        }
+    }
+
+    @Benchmark
+    public HexagonMap generate() {
+        return new HexagonMap(5, image, mapWidth, (q, r, imagePixelColor, map) -> map.addHexagon(new Hexagon(q, r)).setBackgroundColor(imagePixelColor), sampling);
+    }
+}
@@ -0,0 +1,74 @@
+package com.prettybyte.hexagons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds a path from the left edge to the right edge of the map. With uniformCost=false the general A* is used, even
+ * though every step costs 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PathfindingBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"OPEN", "MAZE", "NO_PATH"})
+    BenchmarkMaps.Terrain terrain;
+
+    @Param({"true", "false"})
+    boolean uniformCost;
+
+    private Hexagon start;
+    private Hexagon destination;
+    private IPathInfoSupplier pathInfoSupplier;
+
+    @Setup
+    public void setUp() {
+        HexagonMap map = BenchmarkMaps.create(size, terrain);
+        int side = BenchmarkMaps.getSide(size);
+        start = BenchmarkMaps.get(map, 0, side / 2);
+        destination = BenchmarkMaps.get(map, side - 1, side / 2);
+        pathInfoSupplier = new IPathInfoSupplier() {
+            @Override
+            public boolean isBlockingPath(Hexagon hexagon) {
+                return hexagon.isBlockingPath();
+            }
+
+            @Override
+            public int getMovementCost(Hexagon from, Hexagon to) {
+                return 1;
+            }
+
+            @Override
+            public boolean hasUniformMovementCost() {
+                return uniformCost;
+            }
+        };
+    }
+
+    @Benchmark
+    public Object getPathTo() {
+        try {
+            return start.getPathTo(destination, pathInfoSupplier);
+        } catch (NoPathFoundException e) {
+            return e;
+        }
+    }
+}
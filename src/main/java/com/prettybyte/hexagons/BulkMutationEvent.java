@@ -0,0 +1,22 @@
+package com.prettybyte.hexagons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for operations that change many Hexagons at once, e.g. setBackgroundColors or
+ * replaying a journal.
+ */
+@Name("com.prettybyte.hexagons.BulkMutation")
+@Label("Bulk Mutation")
+@Category("Hexagons")
+@Description("An operation that changes many Hexagons at once")
+class BulkMutationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Hexagons")
+    int hexagons;
+}
@@ -2,34 +2,67 @@ package com.prettybyte.hexagons;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 class Calculations {
+    static final int CHECK_INTERVAL = 64;
+
     static ArrayList<Hexagon> getPathBetween(Hexagon start, Hexagon destination, IPathInfoSupplier pathInfoSupplier) throws NoPathFoundException {
-        ArrayList<Hexagon> closedSet = new ArrayList<>();    // The set of nodes already evaluated
+        return getPathBetween(start, destination, pathInfoSupplier, QueryControl.NONE);
+    }
+
+    /**
+     * The A* state is kept in maps that belong to this search, so several searches can run on the same map at the
+     * same time (as long as the map is not changed). The maps compare the Hexagons by identity, since a Hexagon is a
+     * JavaFX Node and doesn't override hashCode(). The control is polled every CHECK_INTERVAL expansions. If every
+     * step costs the same, the faster UniformCostSearch is used instead.
+     */
+    static ArrayList<Hexagon> getPathBetween(Hexagon start, Hexagon destination, IPathInfoSupplier pathInfoSupplier, QueryControl control) throws NoPathFoundException {
+        if (pathInfoSupplier.hasUniformMovementCost()) {
+            return UniformCostSearch.getPathBetween(start, destination, pathInfoSupplier, control);
+        }
+        IQueryListener listener = start.getMap().queryListener;
+        long startTime = (listener == null) ? 0 : System.nanoTime();
+        int nodesExpanded = 0, peakOpenSetSize = 1, supplierCalls = 0;
+        Object event = FlightRecorder.beginPathQuery();
+
+        Set<Hexagon> closedSet = Collections.newSetFromMap(new IdentityHashMap<>());    // The set of nodes already evaluated
         ArrayList<Hexagon> openSet = new ArrayList<>();   // The set of tentative nodes to be evaluated, initially containing the start node
+        IdentityHashMap<Hexagon, Integer> gScore = new IdentityHashMap<>();
+        IdentityHashMap<Hexagon, Integer> fScore = new IdentityHashMap<>();
+        IdentityHashMap<Hexagon, Hexagon> cameFrom = new IdentityHashMap<>();
         openSet.add(start);
-        start.aStarGscore = 0;
-        start.aStarFscore = start.aStarGscore + GridPosition.getDistance(start.position, destination.position);
+        gScore.put(start, 0);
+        fScore.put(start, GridPosition.getDistance(start.position, destination.position));
 
         Hexagon currentHexagon;
         int tentative_g_score;
         while (openSet.size() > 0) {
-            currentHexagon = findHexagonWithLowestFscore(openSet);
+            if (nodesExpanded % CHECK_INTERVAL == 0) {
+                control.check();
+            }
+            currentHexagon = findHexagonWithLowestFscore(openSet, fScore);
             if (currentHexagon.position.equals(destination.position)) {
-                return reconstruct_path(start, destination);
+                ArrayList<Hexagon> path = reconstruct_path(start, destination, cameFrom);
+                reportPath(listener, startTime, event, start, destination, nodesExpanded, peakOpenSetSize, supplierCalls, path.size());
+                return path;
             }
             openSet.remove(currentHexagon);
             closedSet.add(currentHexagon);
+            nodesExpanded++;
 
             for (Hexagon neighbour : currentHexagon.getNeighbours()) {
+                supplierCalls++;
                 if ((!pathInfoSupplier.isBlockingPath(neighbour)) || neighbour.equals(destination)) {
                     if (!closedSet.contains(neighbour)) {
-                        tentative_g_score = currentHexagon.aStarGscore + pathInfoSupplier.getMovementCost(currentHexagon, neighbour);
+                        supplierCalls++;
+                        tentative_g_score = gScore.get(currentHexagon) + pathInfoSupplier.getMovementCost(currentHexagon, neighbour);
 
-                        if (!openSet.contains(neighbour) || tentative_g_score < neighbour.aStarGscore) {
-                            neighbour.aStarCameFrom = currentHexagon;
-                            neighbour.aStarGscore = tentative_g_score;
-                            neighbour.aStarFscore = neighbour.aStarGscore + GridPosition.getDistance(neighbour.position, destination.position);
+                        if (!openSet.contains(neighbour) || tentative_g_score < gScore.get(neighbour)) {
+                            cameFrom.put(neighbour, currentHexagon);
+                            gScore.put(neighbour, tentative_g_score);
+                            fScore.put(neighbour, tentative_g_score + GridPosition.getDistance(neighbour.position, destination.position));
 
                             /*
                             TODO: Vill få den att generera path som är mer som getLine() så att de inte rör sig kantigt på kartan. Nedanstående funkar sådär:
@@ -39,43 +72,63 @@ class Calculations {
                              */
                             if (!openSet.contains(neighbour)) {
                                 openSet.add(neighbour);
+                                peakOpenSetSize = Math.max(peakOpenSetSize, openSet.size());
                             }
                         }
                     }
                 }
             }
         }
+        reportPath(listener, startTime, event, start, destination, nodesExpanded, peakOpenSetSize, supplierCalls, 0);
         throw new NoPathFoundException("Can't find any path to the goal Hexagon");
     }
 
-    private static Hexagon findHexagonWithLowestFscore(ArrayList<Hexagon> openSet) {
+    static void reportPath(IQueryListener listener, long startTime, Object event, Hexagon start, Hexagon destination,
+                           int nodesExpanded, int peakOpenSetSize, int supplierCalls, int pathLength) {
+        if (listener != null) {
+            listener.onQuery(new QueryMetrics(QueryMetrics.Type.PATH, nodesExpanded, peakOpenSetSize, supplierCalls, System.nanoTime() - startTime, pathLength));
+        }
+        FlightRecorder.commitPathQuery(event, start, destination, nodesExpanded, peakOpenSetSize, pathLength);
+    }
+
+    private static Hexagon findHexagonWithLowestFscore(ArrayList<Hexagon> openSet, IdentityHashMap<Hexagon, Integer> fScore) {
         Hexagon hexagonWithLowestFscore = openSet.get(0);          // Just pick anyone and then see if we can find any better
-        int lowestFscore = hexagonWithLowestFscore.aStarFscore;
+        int lowestFscore = fScore.get(hexagonWithLowestFscore);
         for (Hexagon h : openSet) {
-            if (h.aStarFscore < lowestFscore) {
+            int f = fScore.get(h);
+            if (f < lowestFscore) {
                 hexagonWithLowestFscore = h;
-                lowestFscore = h.aStarFscore;
+                lowestFscore = f;
             }
         }
         return hexagonWithLowestFscore;
     }
 
-    private static ArrayList<Hexagon> reconstruct_path(Hexagon start, Hexagon goal) {
+    private static ArrayList<Hexagon> reconstruct_path(Hexagon start, Hexagon goal, IdentityHashMap<Hexagon, Hexagon> cameFrom) {
         ArrayList<Hexagon> path = new ArrayList<>();
         Hexagon currentHexagon = goal;
         while (currentHexagon != start) {
             path.add(currentHexagon);
-            currentHexagon = currentHexagon.aStarCameFrom;
+            currentHexagon = cameFrom.get(currentHexagon);
         }
         Collections.reverse(path);
         return path;
     }
 
     static ArrayList<Hexagon> getLine(GridPosition origin, GridPosition destination, HexagonMap map) {
-        Hexagon h;
-        ArrayList<Hexagon> result = new ArrayList<>();
+        IQueryListener listener = map.queryListener;
+        long startTime = (listener == null) ? 0 : System.nanoTime();
         ArrayList<GridPosition> positions = origin.line(destination);
+        ArrayList<Hexagon> result = getHexagonsOnLine(positions, map);
+        if (listener != null) {
+            listener.onQuery(new QueryMetrics(QueryMetrics.Type.LINE, positions.size(), 0, 0, System.nanoTime() - startTime, result.size()));
+        }
+        return result;
+    }
 
+    private static ArrayList<Hexagon> getHexagonsOnLine(ArrayList<GridPosition> positions, HexagonMap map) {
+        Hexagon h;
+        ArrayList<Hexagon> result = new ArrayList<>();
         for (GridPosition position : positions) {
             try {
                 h = map.getHexagon(position);
@@ -87,11 +140,22 @@ class Calculations {
     }
 
     static ArrayList<Hexagon> getVisibleHexes(Hexagon origin, int visibleRange, HexagonMap map) {
+        return getVisibleHexes(origin, visibleRange, map, QueryControl.NONE);
+    }
+
+    static ArrayList<Hexagon> getVisibleHexes(Hexagon origin, int visibleRange, HexagonMap map, QueryControl control) {
+        IQueryListener listener = map.queryListener;
+        long startTime = (listener == null) ? 0 : System.nanoTime();
+        int nodesExpanded = 0;
+        Object event = FlightRecorder.beginFieldOfView();
         ArrayList<GridPosition> ringMembers = origin.position.getPositionsOnCircleEdge(visibleRange);
         ArrayList<Hexagon> result = new ArrayList<>();
         ArrayList<Hexagon> line;
         for (GridPosition ringMemberPosition : ringMembers) {
-            line = getLine(origin.position, ringMemberPosition, map);
+            control.check();
+            ArrayList<GridPosition> positions = origin.position.line(ringMemberPosition);
+            nodesExpanded += positions.size();
+            line = getHexagonsOnLine(positions, map);
             for (Hexagon hexagonInLine : line) {
                 result.add(hexagonInLine);
                 if (hexagonInLine.isVisualObstacle()) {
@@ -99,30 +163,44 @@ class Calculations {
                 }
             }
         }
+        if (listener != null) {
+            listener.onQuery(new QueryMetrics(QueryMetrics.Type.FIELD_OF_VIEW, nodesExpanded, 0, 0, System.nanoTime() - startTime, result.size()));
+        }
+        FlightRecorder.commitFieldOfView(event, origin, visibleRange, nodesExpanded, result.size());
         return result;
     }
 
     static ArrayList<Hexagon> getHexagonsOnRingEdge(Hexagon center, int radius, HexagonMap map) {
-        ArrayList<Hexagon> result = new ArrayList<>();
-        for (GridPosition position : center.position.getPositionsOnCircleEdge(radius)) {
-            try {
-                Hexagon hexagon = map.getHexagon(position);
-                result.add(hexagon);
-            } catch (NoHexagonFoundException e) {
-            }
-        }
-        return result;
+        return getHexagons(center.position.getPositionsOnCircleEdge(radius), map, QueryMetrics.Type.RING_EDGE, QueryControl.NONE);
     }
 
     static ArrayList<Hexagon> getHexagonsInRingArea(Hexagon center, int radius, HexagonMap map) {
+        return getHexagonsInRingArea(center, radius, map, QueryControl.NONE);
+    }
+
+    static ArrayList<Hexagon> getHexagonsInRingArea(Hexagon center, int radius, HexagonMap map, QueryControl control) {
+        control.check();
+        return getHexagons(center.position.getPositionsInCircleArea(radius), map, QueryMetrics.Type.RING_AREA, control);
+    }
+
+    private static ArrayList<Hexagon> getHexagons(ArrayList<GridPosition> positions, HexagonMap map, QueryMetrics.Type type, QueryControl control) {
+        IQueryListener listener = map.queryListener;
+        long startTime = (listener == null) ? 0 : System.nanoTime();
         ArrayList<Hexagon> result = new ArrayList<>();
-        for (GridPosition position : center.position.getPositionsInCircleArea(radius)) {
+        for (int i = 0; i < positions.size(); i++) {
+            if (i % CHECK_INTERVAL == 0) {
+                control.check();
+            }
+            GridPosition position = positions.get(i);
             try {
                 Hexagon hexagon = map.getHexagon(position);
                 result.add(hexagon);
             } catch (NoHexagonFoundException e) {
             }
         }
+        if (listener != null) {
+            listener.onQuery(new QueryMetrics(type, positions.size(), 0, 0, System.nanoTime() - startTime, result.size()));
+        }
         return result;
     }
 }
@@ -0,0 +1,76 @@
+package com.prettybyte.hexagons;
+
+import javafx.application.Platform;
+import javafx.scene.paint.Color;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects background color changes from any thread and applies them on the JavaFX Application thread. No matter
+ * how many changes are made before the next pulse, only one Runnable is posted and only the last color of each
+ * Hexagon is applied.
+ */
+class ColorUpdateBuffer {
+
+    private static final Object NO_COLOR = new Object();       // Stands in for null, which ConcurrentHashMap cannot store
+
+    private final Executor uiExecutor;
+    private final ConcurrentHashMap<Hexagon, Object> pendingColors = new ConcurrentHashMap<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+    ColorUpdateBuffer() {
+        this(ColorUpdateBuffer::runOnApplicationThread);
+    }
+
+    /**
+     * @param uiExecutor runs the updates on the thread that is allowed to change the scene graph
+     */
+    ColorUpdateBuffer(Executor uiExecutor) {
+        this.uiExecutor = uiExecutor;
+    }
+
+    void setColor(Hexagon hexagon, Color color) {
+        pendingColors.put(hexagon, color == null ? NO_COLOR : color);
+        schedule();
+    }
+
+    void setColors(Map<Hexagon, Color> colors) {
+        for (Map.Entry<Hexagon, Color> entry : colors.entrySet()) {
+            pendingColors.put(entry.getKey(), entry.getValue() == null ? NO_COLOR : entry.getValue());
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (isScheduled.compareAndSet(false, true)) {
+            uiExecutor.execute(this::applyPendingColors);
+        }
+    }
+
+    private void applyPendingColors() {
+        isScheduled.set(false);         // Changes made from now on will be applied in the next pass
+        for (Map.Entry<Hexagon, Object> entry : pendingColors.entrySet()) {
+            // If the color was changed again while we were here, the newer color will be applied in the next pass.
+            // Colors are compared by equals(), but NO_COLOR is only equal to itself.
+            if (pendingColors.remove(entry.getKey(), entry.getValue())) {
+                entry.getKey().setFill(entry.getValue() == NO_COLOR ? null : (Color) entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Posts the runnable to the JavaFX Application thread. If the JavaFX toolkit is not running (e.g. on a server, or
+     * before Application.launch()), nothing is rendered yet and the runnable is run directly on this thread. This is
+     * checked every time, so updates go to the Application thread as soon as the toolkit has been started.
+     */
+    private static void runOnApplicationThread(Runnable runnable) {
+        try {
+            Platform.runLater(runnable);
+        } catch (IllegalStateException e) {
+            runnable.run();         // "Toolkit not initialized"
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Conversions between JavaFX Colors and packed ARGB integers (as used by java.awt and PixelReader)
+ */
+class Colors {
+
+    private Colors() {
+    }
+
+    static int toArgb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static Color fromArgb(int argb) {
+        return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+    }
+}
@@ -0,0 +1,264 @@
+package com.prettybyte.hexagons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Plans the movement of many agents at the same time, so that no two agents are on the same Hexagon at the same time
+ * step, and no two agents swap places with each other. Windowed cooperative A* is used: the agents are planned one
+ * after another, and every agent reserves the Hexagons it will use during the next "window" time steps in a
+ * reservation table, that the following agents have to avoid. An agent may wait on a Hexagon if that is better than
+ * moving.
+ * <p>
+ * Only the next window time steps are planned, so plan() should be called again (e.g. every window / 2 time steps)
+ * with the current positions of the agents. To guide the agents beyond the window, a route to the goal is first found
+ * for every agent without caring about the other agents. The agent then heads for the Hexagon on that route that it
+ * would reach at the end of the window. The routes to a goal are remembered between calls to plan(), and a new route
+ * search stops as soon as it reaches a remembered route, so agents that are going to the same goal (or to the same goal
+ * again) share most of the work. Call forgetRoutes() when the map has changed.
+ */
+public class CooperativePlanner {
+
+    private static final int MAX_REMEMBERED_GOALS = 4096;
+
+    private final IPathInfoSupplier pathInfoSupplier;
+    private final int window;
+    private final Map<Hexagon, HashMap<Hexagon, Hexagon>> routes = new LinkedHashMap<Hexagon, HashMap<Hexagon, Hexagon>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Hexagon, HashMap<Hexagon, Hexagon>> eldest) {
+            return size() > MAX_REMEMBERED_GOALS;
+        }
+    };    // For every goal, the next step towards it from the Hexagons on the routes that have been found
+
+    /**
+     * @param pathInfoSupplier decides which Hexagons are blocking and what it costs to move between them. Waiting
+     *                         costs 1, except on the goal where it is free.
+     * @param window           how many time steps that are planned
+     */
+    public CooperativePlanner(IPathInfoSupplier pathInfoSupplier, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must be at least 1");
+        }
+        this.pathInfoSupplier = pathInfoSupplier;
+        this.window = window;
+    }
+
+    /**
+     * Plans the next time steps for a batch of agents. Agents earlier in the list get priority, so it can be a good
+     * idea to change the order between the calls.
+     *
+     * @param starts the current Hexagon of every agent
+     * @param goals  the goal of every agent, in the same order as starts
+     * @return for every agent, the Hexagon it should be on after each of the next window time steps. When the same
+     * Hexagon appears several times after each other, the agent waits. If an agent can't reach its goal at all, it
+     * waits on its start Hexagon.
+     */
+    public List<List<Hexagon>> plan(List<Hexagon> starts, List<Hexagon> goals) {
+        if (starts.size() != goals.size()) {
+            throw new IllegalArgumentException("There must be one goal for every start");
+        }
+        // Until an agent has been planned, it stays on its start Hexagon. That way it can always wait there.
+        ReservationTable reservations = new ReservationTable();
+        for (int agent = 0; agent < starts.size(); agent++) {
+            for (int t = 0; t <= window; t++) {
+                if (!reservations.reserve(starts.get(agent), t, agent)) {
+                    throw new IllegalArgumentException("Two agents start on " + starts.get(agent).position);
+                }
+            }
+        }
+        List<List<Hexagon>> result = new ArrayList<>(starts.size());
+        for (int agent = 0; agent < starts.size(); agent++) {
+            Hexagon start = starts.get(agent);
+            List<Hexagon> steps = planAgent(agent, start, goals.get(agent), reservations);
+            for (int t = 1; t <= window; t++) {
+                Hexagon hexagon = steps.get(t - 1);
+                if (!hexagon.equals(start)) {
+                    reservations.release(start, t);
+                    reservations.reserve(hexagon, t, agent);
+                }
+            }
+            result.add(steps);
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the routes to the goals. Must be called when Hexagons have been added, removed or changed.
+     */
+    public void forgetRoutes() {
+        routes.clear();
+    }
+
+    private List<Hexagon> planAgent(int agent, Hexagon start, Hexagon goal, ReservationTable reservations) {
+        HashMap<Hexagon, Hexagon> nextSteps = routes.computeIfAbsent(goal, g -> new HashMap<>());
+        if (!start.equals(goal) && !nextSteps.containsKey(start) && !findRoute(start, goal, nextSteps)) {
+            return waitOn(start, 0);
+        }
+        // The cost from the waypoint to the goal is the same for all nodes, so only the distance to the waypoint matters
+        Hexagon waypoint = start;
+        for (int step = 0; step < window && !waypoint.equals(goal); step++) {
+            waypoint = nextSteps.get(waypoint);
+        }
+
+        PriorityQueue<Node> openSet = new PriorityQueue<>();
+        HashSet<Long> closedSet = new HashSet<>();
+        openSet.add(new Node(start, 0, 0, distance(start, waypoint), null));
+        Node best = null;
+        while (!openSet.isEmpty()) {
+            Node current = openSet.poll();
+            if (current.time == window || (current.hexagon.equals(goal) && reservations.isFreeUntil(goal, current.time, window, agent))) {
+                best = current;
+                break;
+            }
+            if (!closedSet.add(ReservationTable.key(current.hexagon, current.time))) {
+                continue;
+            }
+
+            int nextTime = current.time + 1;
+            int waitCost = current.hexagon.equals(goal) ? 0 : 1;
+            if (reservations.isFree(current.hexagon, nextTime, agent)) {
+                openSet.add(new Node(current.hexagon, nextTime, current.g + waitCost, current.g + waitCost + distance(current.hexagon, waypoint), current));
+            }
+            for (Hexagon neighbour : current.hexagon.getNeighbours()) {
+                if (pathInfoSupplier.isBlockingPath(neighbour) && !neighbour.equals(goal)) {
+                    continue;
+                }
+                if (!reservations.isFree(neighbour, nextTime, agent)
+                        || reservations.isSwap(current.hexagon, neighbour, current.time, agent)
+                        || closedSet.contains(ReservationTable.key(neighbour, nextTime))) {
+                    continue;
+                }
+                int g = current.g + pathInfoSupplier.getMovementCost(current.hexagon, neighbour);
+                openSet.add(new Node(neighbour, nextTime, g, g + distance(neighbour, waypoint), current));
+            }
+        }
+        if (best == null) {
+            return waitOn(start, 0);           // Everything around the agent is reserved
+        }
+
+        ArrayList<Hexagon> steps = new ArrayList<>(window);
+        for (Node node = best; node.parent != null; node = node.parent) {
+            steps.add(node.hexagon);
+        }
+        Collections.reverse(steps);
+        steps.addAll(waitOn(best.hexagon, best.time));
+        return steps;
+    }
+
+    /**
+     * A* from start to goal where the other agents are ignored. The search stops at the goal or at a Hexagon that is
+     * already on a route to the goal, and the new route is added to nextSteps.
+     *
+     * @return false if there is no route
+     */
+    private boolean findRoute(Hexagon start, Hexagon goal, HashMap<Hexagon, Hexagon> nextSteps) {
+        PriorityQueue<Node> openSet = new PriorityQueue<>();
+        HashMap<Hexagon, Integer> gScore = new HashMap<>();
+        HashSet<Hexagon> closedSet = new HashSet<>();
+        openSet.add(new Node(start, 0, 0, distance(start, goal), null));
+        gScore.put(start, 0);
+        while (!openSet.isEmpty()) {
+            Node current = openSet.poll();
+            if (current.hexagon.equals(goal) || nextSteps.containsKey(current.hexagon)) {
+                for (Node node = current; node.parent != null; node = node.parent) {
+                    nextSteps.put(node.parent.hexagon, node.hexagon);
+                }
+                return true;
+            }
+            if (!closedSet.add(current.hexagon)) {
+                continue;
+            }
+            for (Hexagon neighbour : current.hexagon.getNeighbours()) {
+                if ((pathInfoSupplier.isBlockingPath(neighbour) && !neighbour.equals(goal)) || closedSet.contains(neighbour)) {
+                    continue;
+                }
+                int g = current.g + pathInfoSupplier.getMovementCost(current.hexagon, neighbour);
+                Integer previous = gScore.get(neighbour);
+                if (previous == null || g < previous) {
+                    gScore.put(neighbour, g);
+                    openSet.add(new Node(neighbour, current.time + 1, g, g + distance(neighbour, goal), current));
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int distance(Hexagon from, Hexagon to) {
+        return GridPosition.getDistance(from.position, to.position);
+    }
+
+    private List<Hexagon> waitOn(Hexagon hexagon, int fromTime) {
+        return Collections.nCopies(window - fromTime, hexagon);
+    }
+
+    private static class Node implements Comparable<Node> {
+        final Hexagon hexagon;
+        final int time;
+        final int g, f;
+        final Node parent;
+
+        Node(Hexagon hexagon, int time, int g, int f, Node parent) {
+            this.hexagon = hexagon;
+            this.time = time;
+            this.g = g;
+            this.f = f;
+            this.parent = parent;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            if (f != other.f) {
+                return Integer.compare(f, other.f);
+            }
+            return Integer.compare(other.time, time);     // Prefer the node that has come further
+        }
+    }
+
+    /**
+     * Which agent that is on a Hexagon at a time step
+     */
+    private static class ReservationTable {
+        private final HashMap<Long, Integer> agents = new HashMap<>();
+
+        static long key(Hexagon hexagon, int time) {
+            return ((long) (hexagon.getQ() & 0x1FFFFF) << 43) | ((long) (hexagon.getR() & 0x1FFFFF) << 22) | (time & 0x3FFFFF);
+        }
+
+        boolean reserve(Hexagon hexagon, int time, int agent) {
+            Integer previous = agents.putIfAbsent(key(hexagon, time), agent);
+            return previous == null || previous == agent;
+        }
+
+        void release(Hexagon hexagon, int time) {
+            agents.remove(key(hexagon, time));
+        }
+
+        boolean isFree(Hexagon hexagon, int time, int agent) {
+            Integer owner = agents.get(key(hexagon, time));
+            return owner == null || owner == agent;
+        }
+
+        boolean isFreeUntil(Hexagon hexagon, int fromTime, int toTime, int agent) {
+            for (int t = fromTime; t <= toTime; t++) {
+                if (!isFree(hexagon, t, agent)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if another agent moves from "to" to "from" at the same time as this agent moves from "from" to "to"
+         */
+        boolean isSwap(Hexagon from, Hexagon to, int time, int agent) {
+            Integer other = agents.get(key(to, time));
+            return other != null && other != agent && other.equals(agents.get(key(from, time + 1)));
+        }
+    }
+}
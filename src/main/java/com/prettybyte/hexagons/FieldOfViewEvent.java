@@ -0,0 +1,30 @@
+package com.prettybyte.hexagons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for every field of view calculation (getVisibleHexes)
+ */
+@Name("com.prettybyte.hexagons.FieldOfView")
+@Label("Field Of View")
+@Category("Hexagons")
+@Description("Finding the Hexagons that are visible from a Hexagon")
+class FieldOfViewEvent extends jdk.jfr.Event {
+    @Label("Origin Q")
+    int originQ;
+
+    @Label("Origin R")
+    int originR;
+
+    @Label("Range")
+    int range;
+
+    @Label("Positions Examined")
+    int positionsExamined;
+
+    @Label("Visible Hexagons")
+    int visibleHexagons;
+}
@@ -0,0 +1,157 @@
+package com.prettybyte.hexagons;
+
+/**
+ * Begins and commits the Java Flight Recorder events of the library. Not every Java 8 JVM has JFR, so the event classes
+ * (which extend jdk.jfr.Event) are only loaded by Events if jdk.jfr.Event exists. Otherwise the begin methods return
+ * null and the other methods do nothing. The callers keep the event as an Object, so they never refer to JFR classes.
+ * <p>
+ * The fields of an event are only filled in if the event should be committed, which is cheap when it is disabled.
+ */
+class FlightRecorder {
+
+    static final boolean IS_AVAILABLE = isAvailable();
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginPathQuery() {
+        return IS_AVAILABLE ? Events.begin(new PathQueryEvent()) : null;
+    }
+
+    static void commitPathQuery(Object event, Hexagon start, Hexagon destination, int nodesExpanded, int peakOpenSetSize, int pathLength) {
+        if (event != null) {
+            Events.commitPathQuery(event, start, destination, nodesExpanded, peakOpenSetSize, pathLength);
+        }
+    }
+
+    static Object beginFieldOfView() {
+        return IS_AVAILABLE ? Events.begin(new FieldOfViewEvent()) : null;
+    }
+
+    static void commitFieldOfView(Object event, Hexagon origin, int range, int positionsExamined, int visibleHexagons) {
+        if (event != null) {
+            Events.commitFieldOfView(event, origin, range, positionsExamined, visibleHexagons);
+        }
+    }
+
+    static Object beginMapGeneration() {
+        return IS_AVAILABLE ? Events.begin(new MapGenerationEvent()) : null;
+    }
+
+    /**
+     * @param phase "read", "sample" or "create"
+     */
+    static void commitMapGeneration(Object event, String phase, int firstRow, int rowCount) {
+        if (event != null) {
+            Events.commitMapGeneration(event, phase, firstRow, rowCount);
+        }
+    }
+
+    static Object beginRender() {
+        return IS_AVAILABLE ? Events.begin(new RenderEvent()) : null;
+    }
+
+    static void commitRender(Object event, int hexagons, boolean visibleAreaOnly, boolean lowDetail) {
+        if (event != null) {
+            Events.commitRender(event, hexagons, visibleAreaOnly, lowDetail);
+        }
+    }
+
+    static Object beginBulkMutation() {
+        return IS_AVAILABLE ? Events.begin(new BulkMutationEvent()) : null;
+    }
+
+    /**
+     * @return true if the event is recorded, so it is worth collecting what it reports
+     */
+    static boolean isEnabled(Object event) {
+        return event != null && Events.isEnabled(event);
+    }
+
+    static void commitBulkMutation(Object event, String operation, int hexagons) {
+        if (event != null) {
+            Events.commitBulkMutation(event, operation, hexagons);
+        }
+    }
+
+    /**
+     * The only class (apart from the events) that refers to jdk.jfr. It is loaded the first time it is used.
+     */
+    private static class Events {
+
+        static Object begin(jdk.jfr.Event event) {
+            event.begin();
+            return event;
+        }
+
+        static boolean isEnabled(Object event) {
+            return ((jdk.jfr.Event) event).isEnabled();
+        }
+
+        static void commitPathQuery(Object o, Hexagon start, Hexagon destination, int nodesExpanded, int peakOpenSetSize, int pathLength) {
+            PathQueryEvent event = (PathQueryEvent) o;
+            event.end();
+            if (event.shouldCommit()) {
+                event.startQ = start.getQ();
+                event.startR = start.getR();
+                event.destinationQ = destination.getQ();
+                event.destinationR = destination.getR();
+                event.nodesExpanded = nodesExpanded;
+                event.peakOpenSetSize = peakOpenSetSize;
+                event.pathLength = pathLength;
+                event.commit();
+            }
+        }
+
+        static void commitFieldOfView(Object o, Hexagon origin, int range, int positionsExamined, int visibleHexagons) {
+            FieldOfViewEvent event = (FieldOfViewEvent) o;
+            event.end();
+            if (event.shouldCommit()) {
+                event.originQ = origin.getQ();
+                event.originR = origin.getR();
+                event.range = range;
+                event.positionsExamined = positionsExamined;
+                event.visibleHexagons = visibleHexagons;
+                event.commit();
+            }
+        }
+
+        static void commitMapGeneration(Object o, String phase, int firstRow, int rowCount) {
+            MapGenerationEvent event = (MapGenerationEvent) o;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.firstRow = firstRow;
+                event.rowCount = rowCount;
+                event.commit();
+            }
+        }
+
+        static void commitRender(Object o, int hexagons, boolean visibleAreaOnly, boolean lowDetail) {
+            RenderEvent event = (RenderEvent) o;
+            event.end();
+            if (event.shouldCommit()) {
+                event.hexagons = hexagons;
+                event.visibleAreaOnly = visibleAreaOnly;
+                event.lowDetail = lowDetail;
+                event.commit();
+            }
+        }
+
+        static void commitBulkMutation(Object o, String operation, int hexagons) {
+            BulkMutationEvent event = (BulkMutationEvent) o;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.hexagons = hexagons;
+                event.commit();
+            }
+        }
+    }
+}
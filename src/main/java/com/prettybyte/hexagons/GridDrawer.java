@@ -2,54 +2,266 @@ package com.prettybyte.hexagons;
 
 import javafx.event.EventHandler;
 import javafx.scene.Group;
+import javafx.scene.Node;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Polygon;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
+import javafx.scene.transform.Affine;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.WeakHashMap;
 
+import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 
 class GridDrawer {
 
     private final HexagonMap map;
     private javafx.scene.text.Font font = new Font(13);
+    private final Affine transform = new Affine();     // Padding and zoom, so that the Hexagons never have to move
+    private final Group content = new Group();         // Owns the transform, so that nothing else in the caller's Group is moved
+    private HashMap<Hexagon, Text> coordinateTexts = new HashMap<>();           // Reused while the Hexagons are visible
+    private final HashMap<Hexagon, Paint> hiddenStrokes = new HashMap<>();      // Strokes removed while zoomed out
+    private final WeakHashMap<HexagonPyramid.Cell, Polygon> cellPolygons = new WeakHashMap<>();   // Forgotten with the cells
+    private Hexagon hoveredHexagon;
 
     /**
      * @param map
      */
     GridDrawer(HexagonMap map) {
         this.map = map;
+        content.getTransforms().add(transform);
+        installMouseHandlers();
     }
 
+    /**
+     * Adds the Group of the map to root, and all Hexagons (and coordinates) to the Group of the map
+     */
     void draw(Group root) {
+        Object event = FlightRecorder.beginRender();
+        attachTo(root);
+        HexagonPyramid pyramid = map.getPyramid();
+        int level = getPyramidLevel(pyramid);
+        if (level > 0) {
+            ArrayList<Polygon> polygons = getCellPolygons(pyramid, level, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+            content.getChildren().setAll(polygons);
+            FlightRecorder.commitRender(event, polygons.size(), false, true);
+            return;
+        }
+        boolean lowDetail = isLowDetail();
         Collection<Hexagon> hexagons = map.getAllHexagons();
+        ArrayList<Node> nodes = new ArrayList<>(hexagons.size() * (map.renderCoordinates ? 2 : 1));
         for (Hexagon hexagon : hexagons) {
-            hexagon.addEventFilter(MouseEvent.MOUSE_CLICKED,
-                    new EventHandler<MouseEvent>() {
-                        @Override
-                        public void handle(MouseEvent me) {
-                            GridPosition pos = ((Hexagon) me.getSource()).position;
-                            try {
-                                map.onHexClickedCallback.onClicked(map.getHexagon(pos));
-                            } catch (NoHexagonFoundException e) {
-                            }
-                        }
-                    });
-            root.getChildren().add(hexagon);
-
-            if (map.renderCoordinates) {
-                Text text = new Text(hexagon.position.getCoordinates());
-                text.setFont(font);
-                double textWidth = text.getBoundsInLocal().getWidth();
-                double textHeight = text.getBoundsInLocal().getHeight();
-                text.setX(hexagon.getGraphicsXoffset() - textWidth / 2);
-                text.setY(hexagon.getGraphicsYoffset() + textHeight / 4);           // Not sure why but 4 seems like a good value
-                root.getChildren().add(text);
+            setDetailLevel(hexagon, lowDetail);
+            nodes.add(hexagon);
+
+            if (map.renderCoordinates && !lowDetail) {
+                nodes.add(getCoordinateText(hexagon));
+            }
+        }
+        content.getChildren().setAll(nodes);
+        FlightRecorder.commitRender(event, hexagons.size(), false, lowDetail);
+    }
+
+    /**
+     * Adds the Group of the map to root, and replaces the content of the Group of the map with the Hexagons (and
+     * coordinates) that intersect the visible area. Nodes that were already there are reused, so this can be called
+     * every time the visible area changes.
+     *
+     * @param x      the visible area in the coordinate system of root
+     * @param y      the visible area in the coordinate system of root
+     * @param width  the visible area in the coordinate system of root
+     * @param height the visible area in the coordinate system of root
+     */
+    void drawVisibleArea(Group root, double x, double y, double width, double height) {
+        Object event = FlightRecorder.beginRender();
+        attachTo(root);
+        HexagonPyramid pyramid = map.getPyramid();
+        int level = getPyramidLevel(pyramid);
+        if (level > 0) {
+            double left = x / map.zoom - map.graphicsXpadding;
+            double top = y / map.zoom - map.graphicsYpadding;
+            ArrayList<Polygon> polygons = getCellPolygons(pyramid, level, left, top, left + width / map.zoom, top + height / map.zoom);
+            content.getChildren().setAll(polygons);
+            coordinateTexts.clear();
+            FlightRecorder.commitRender(event, polygons.size(), true, true);
+            return;
+        }
+        boolean lowDetail = isLowDetail();
+        ArrayList<Hexagon> visibleHexagons = map.getHexagonsInArea(x / map.zoom, y / map.zoom, width / map.zoom, height / map.zoom);
+        ArrayList<Node> nodes = new ArrayList<>(visibleHexagons.size() * (map.renderCoordinates ? 2 : 1));
+        for (Hexagon hexagon : visibleHexagons) {
+            setDetailLevel(hexagon, lowDetail);
+            nodes.add(hexagon);
+        }
+        HashMap<Hexagon, Text> visibleTexts = new HashMap<>();
+        if (map.renderCoordinates && !lowDetail) {
+            for (Hexagon hexagon : visibleHexagons) {
+                Text text = getCoordinateText(hexagon);
+                visibleTexts.put(hexagon, text);
+                nodes.add(text);
+            }
+        }
+        coordinateTexts = visibleTexts;         // The Texts of Hexagons that are no longer visible can be collected
+        content.getChildren().setAll(nodes);
+        FlightRecorder.commitRender(event, visibleHexagons.size(), true, lowDetail);
+    }
+
+    /**
+     * The Group of the map is moved to root if it was rendered somewhere else before. A Node can only have one parent.
+     */
+    private void attachTo(Group root) {
+        if (content.getParent() != root) {
+            root.getChildren().add(content);
+        }
+    }
+
+    /**
+     * Instead of one handler per Hexagon, a single handler on the Group finds the Hexagon from the mouse position.
+     * The mouse position is in the coordinates of the Group, where the padding is not included.
+     */
+    private void installMouseHandlers() {
+        content.addEventFilter(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent me) {
+                GridPosition pos = pixelToPosition((int) me.getX(), (int) me.getY(), map.getGraphicsHexagonHeight(), 0, 0);
+                try {
+                    map.onHexClickedCallback.onClicked(map.getHexagon(pos));
+                } catch (NoHexagonFoundException e) {
+                }
             }
+        });
+        content.addEventFilter(MouseEvent.MOUSE_MOVED, new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent me) {
+                GridPosition pos = pixelToPositionFast((int) me.getX(), (int) me.getY(), map.getGraphicsHexagonHeight(), 0, 0);
+                if (hoveredHexagon != null && hoveredHexagon.position.equals(pos)) {
+                    return;
+                }
+                Hexagon hexagon;
+                try {
+                    hexagon = map.getHexagon(pos);
+                } catch (NoHexagonFoundException e) {
+                    hexagon = null;
+                }
+                setHoveredHexagon(hexagon);
+            }
+        });
+        content.addEventFilter(MouseEvent.MOUSE_EXITED, new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent me) {
+                setHoveredHexagon(null);
+            }
+        });
+    }
+
+    private void setHoveredHexagon(Hexagon hexagon) {
+        if (hexagon == hoveredHexagon) {
+            return;
+        }
+        if (hoveredHexagon != null) {
+            map.onHexExitedCallback.onExited(hoveredHexagon);
+        }
+        hoveredHexagon = hexagon;
+        if (hexagon != null) {
+            map.onHexEnteredCallback.onEntered(hexagon);
         }
     }
 
+    /**
+     * @return the first level of the pyramid where the cells are at least pyramidRenderingSize pixels, or 0 if the
+     * Hexagons are large enough (or there is no pyramid)
+     */
+    private int getPyramidLevel(HexagonPyramid pyramid) {
+        if (pyramid == null) {
+            return 0;
+        }
+        double size = map.hexagonSize * map.zoom;
+        int level = 0;
+        while (size < map.pyramidRenderingSize && level < pyramid.getLevels()) {
+            size *= pyramid.getCellScale();
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The cells are drawn as hexagons with the same area as the cells, rotated like the grid of cells. The cells are
+     * not exactly hexagons, but these hexagons cover the map without gaps or overlaps.
+     *
+     * @return the polygons of the cells on a level whose centers are inside the rectangle (in local coordinates),
+     * widened by the size of a cell
+     */
+    private ArrayList<Polygon> getCellPolygons(HexagonPyramid pyramid, int level, double left, double top, double right, double bottom) {
+        double radius = map.hexagonSize * Math.pow(pyramid.getCellScale(), level);
+        double rotation = pyramid.getCellRotation() * level;
+        ArrayList<Polygon> result = new ArrayList<>();
+        for (HexagonPyramid.Cell cell : pyramid.getCells(level)) {
+            GridPosition center = pyramid.toHexagonCenter(level, cell.position);
+            double centerX = Hexagon.calculateGraphicsXoffset(center.q, center.r, map.hexagonSize);
+            double centerY = Hexagon.calculateGraphicsYoffset(center.r, map.hexagonSize);
+            if (centerX < left - radius || centerX > right + radius || centerY < top - radius || centerY > bottom + radius) {
+                continue;
+            }
+            Polygon polygon = cellPolygons.computeIfAbsent(cell, c -> {
+                Polygon p = new Polygon();
+                for (int i = 0; i < 6; i++) {
+                    double angle = 2 * Math.PI / 6 * (i + 0.5) + rotation;
+                    p.getPoints().addAll(centerX + radius * Math.cos(angle), centerY + radius * Math.sin(angle));
+                }
+                return p;
+            });
+            polygon.setFill(cell.getColor() == null ? Color.TRANSPARENT : cell.getColor());
+            result.add(polygon);
+        }
+        return result;
+    }
+
+    private boolean isLowDetail() {
+        return map.zoom < map.lowDetailZoom;
+    }
+
+    /**
+     * Must be called when the zoom or the padding has changed
+     */
+    void updateTransform() {
+        transform.setToTransform(map.zoom, 0, map.zoom * map.graphicsXpadding, 0, map.zoom, map.zoom * map.graphicsYpadding);
+    }
+
+    /**
+     * Strokes are hardly visible when zoomed out but still cost a lot to render, so they are removed (and later
+     * restored).
+     */
+    private void setDetailLevel(Hexagon hexagon, boolean lowDetail) {
+        if (lowDetail) {
+            if (!hiddenStrokes.containsKey(hexagon)) {
+                hiddenStrokes.put(hexagon, hexagon.getStroke());
+                hexagon.setStroke(null);
+            }
+        } else if (hiddenStrokes.containsKey(hexagon)) {
+            hexagon.setStroke(hiddenStrokes.remove(hexagon));
+        }
+    }
+
+    private Text getCoordinateText(Hexagon hexagon) {
+        Text text = coordinateTexts.get(hexagon);
+        if (text == null || text.getFont() != font) {
+            text = new Text(hexagon.position.getCoordinates());
+            text.setFont(font);
+            double textWidth = text.getBoundsInLocal().getWidth();
+            double textHeight = text.getBoundsInLocal().getHeight();
+            text.setX(hexagon.getLocalGraphicsXoffset() - textWidth / 2);
+            text.setY(hexagon.getLocalGraphicsYoffset() + textHeight / 4);           // Not sure why but 4 seems like a good value
+            coordinateTexts.put(hexagon, text);
+        }
+        return text;
+    }
+
     /**
      * @param x
      * @param y
@@ -65,8 +277,56 @@ class GridDrawer {
         return (GridPosition.hexRound(q, r));
     }
 
+    private static final int FIXED_POINT_SHIFT = 20;
+    private static final long FIXED_POINT_ONE = 1L << FIXED_POINT_SHIFT;
+    private static final long FIXED_POINT_SQRT_3 = Math.round(sqrt(3.0) * FIXED_POINT_ONE);
+
+    /**
+     * Does the same as pixelToPosition() but uses only integer arithmetic. It is meant to be called very often,
+     * e.g. every time the mouse moves. On the exact border between two Hexagons, the result may differ from
+     * pixelToPosition().
+     *
+     * @return the GridPosition that contains that pixel
+     */
+    static GridPosition pixelToPositionFast(int x, int y, int hexagonHeight, int xPadding, int yPadding) {
+        long px = x - xPadding;
+        long py = y - yPadding;
+        // The same formulas as in pixelToPosition(), with every term multiplied by the denominator
+        long denominator = 3L * hexagonHeight * FIXED_POINT_ONE;
+        long cubeX = 2 * FIXED_POINT_SQRT_3 * px - 2 * py * FIXED_POINT_ONE;
+        long cubeY = 4 * py * FIXED_POINT_ONE;
+        long cubeZ = -cubeX - cubeY;
+
+        long rx = roundedDivision(cubeX, denominator);
+        long ry = roundedDivision(cubeY, denominator);
+        long rz = roundedDivision(cubeZ, denominator);
+
+        long xDiff = abs(rx * denominator - cubeX);
+        long yDiff = abs(ry * denominator - cubeY);
+        long zDiff = abs(rz * denominator - cubeZ);
+
+        if (xDiff > yDiff && xDiff > zDiff) {
+            rx = -ry - rz;
+        } else if (yDiff > zDiff) {
+            ry = -rx - rz;
+        }
+        return new GridPosition((int) rx, (int) ry);
+    }
+
+    private static long roundedDivision(long dividend, long divisor) {
+        return Math.floorDiv(2 * dividend + divisor, 2 * divisor);
+    }
+
     void setFont(Font font) {
         this.font = font;
     }
 
+    void forget(Hexagon hexagon) {
+        coordinateTexts.remove(hexagon);
+        hiddenStrokes.remove(hexagon);
+        if (hoveredHexagon == hexagon) {
+            hoveredHexagon = null;
+        }
+    }
+
 }
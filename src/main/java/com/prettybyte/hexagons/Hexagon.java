@@ -10,6 +10,11 @@ import static java.lang.Math.*;
 
 /**
  * A Hexagon is the building block of the grid.
+ * <p>
+ * The points of the Polygon (getPoints()) do not include the padding of the HexagonMap, since the padding and the zoom
+ * are applied as a transform on the Group that the HexagonMap renders into. In earlier versions the padding was
+ * included, so code that lays out its own nodes from the points must now add the padding itself.
+ * getGraphicsXoffset() and getGraphicsYoffset() still include the padding.
  */
 public class Hexagon extends Polygon {
 
@@ -17,10 +22,9 @@ public class Hexagon extends Polygon {
     private HexagonMap map;
     private boolean isVisualObstacle;
     private boolean isBlockingPath;
-    int aStarGscore, aStarFscore;      // Variables for the A* pathfinding algorithm.
-    Hexagon aStarCameFrom;
-    private int graphicsXoffset;
+    private int graphicsXoffset;            // Calculated in init(), when the Hexagon gets a map
     private int graphicsYoffset;
+    private volatile Color backgroundColor;
 
     /**
      * The position of the Hexagon is specified with axial coordinates
@@ -34,9 +38,9 @@ public class Hexagon extends Polygon {
 
     void init() {
         this.setStroke(Color.BLACK);
-        for (double p : calculatePolygonPoints()) {
-            this.getPoints().add(p);
-        }
+        graphicsXoffset = calculateGraphicsXoffset(position.q, position.r, map.hexagonSize);
+        graphicsYoffset = calculateGraphicsYoffset(position.r, map.hexagonSize);
+        getPoints().setAll(calculatePolygonPoints());
     }
 
     /**
@@ -59,6 +63,9 @@ public class Hexagon extends Polygon {
      */
     public void setIsVisualObstacle(boolean b) {
         isVisualObstacle = b;
+        if (map != null) {
+            map.onFlagsChanged(this);
+        }
     }
 
     /**
@@ -78,6 +85,9 @@ public class Hexagon extends Polygon {
      */
     public void setIsBlockingPath(boolean b) {
         isBlockingPath = b;
+        if (map != null) {
+            map.onFlagsChanged(this);
+        }
     }
 
     /**
@@ -90,55 +100,138 @@ public class Hexagon extends Polygon {
     }
 
     // --------------------- Graphics --------------------------------------------
-    private double[] calculatePolygonPoints() {
-        checkMap();
-        int graphicsHeight = map.hexagonSize * 2;
-        double graphicsWidth = sqrt(3) / 2 * graphicsHeight;
-        graphicsXoffset = (int) (graphicsWidth * (double) position.q + 0.5 * graphicsWidth * (double) position.r);
-        graphicsYoffset = (int) (3.0 / 4.0 * graphicsHeight * position.r);
-        graphicsXoffset = graphicsXoffset + map.graphicsXpadding;
-        graphicsYoffset = graphicsYoffset + map.graphicsYpadding;
 
-        double polyPoints[] = new double[12];
+    /**
+     * The corners of a Hexagon with radius 1 and its center in origo. All Hexagons are this shape, scaled and moved.
+     */
+    private static final double[] UNIT_HEXAGON_CORNERS = calculateUnitHexagonCorners();
+
+    private static double[] calculateUnitHexagonCorners() {
+        double corners[] = new double[12];
         double angle;
         for (int i = 0; i < 6; i++) {
             angle = 2 * PI / 6 * (i + 0.5);
-            polyPoints[(i * 2)] = (graphicsXoffset + map.hexagonSize * cos(angle));
-            polyPoints[(i * 2 + 1)] = (graphicsYoffset + map.hexagonSize * sin(angle));
+            corners[(i * 2)] = cos(angle);
+            corners[(i * 2 + 1)] = sin(angle);
+        }
+        return corners;
+    }
+
+    /**
+     * @return where the center of the Hexagon at this position is, not counting the padding
+     */
+    static int calculateGraphicsXoffset(int q, int r, int hexagonSize) {
+        int graphicsHeight = hexagonSize * 2;
+        double graphicsWidth = sqrt(3) / 2 * graphicsHeight;
+        return (int) (graphicsWidth * (double) q + 0.5 * graphicsWidth * (double) r);
+    }
+
+    /**
+     * @return where the center of the Hexagon at this position is, not counting the padding
+     */
+    static int calculateGraphicsYoffset(int r, int hexagonSize) {
+        int graphicsHeight = hexagonSize * 2;
+        return (int) (3.0 / 4.0 * graphicsHeight * r);
+    }
+
+    /**
+     * @return the corners of the Hexagon at this position, not counting the padding
+     */
+    static double[] calculatePolygonPoints(int q, int r, int hexagonSize) {
+        return placeUnitHexagon(calculateGraphicsXoffset(q, r, hexagonSize), calculateGraphicsYoffset(r, hexagonSize), hexagonSize);
+    }
+
+    static double[] placeUnitHexagon(double centerX, double centerY, double radius) {
+        double polyPoints[] = new double[12];
+        for (int i = 0; i < 12; i += 2) {
+            polyPoints[i] = centerX + radius * UNIT_HEXAGON_CORNERS[i];
+            polyPoints[i + 1] = centerY + radius * UNIT_HEXAGON_CORNERS[i + 1];
         }
         return polyPoints;
     }
 
+    /**
+     * Like placeUnitHexagon(), but written straight into the Doubles that a Polygon stores its points as, instead of
+     * into a double[] that would then be copied
+     */
+    private Double[] calculatePolygonPoints() {
+        int radius = map.hexagonSize;
+        Double[] points = new Double[12];
+        for (int i = 0; i < 12; i += 2) {
+            points[i] = graphicsXoffset + radius * UNIT_HEXAGON_CORNERS[i];
+            points[i + 1] = graphicsYoffset + radius * UNIT_HEXAGON_CORNERS[i + 1];
+        }
+        return points;
+    }
+
     /**
      *
-     * @return where this Hexagon is when rendererd into a JavaFX Group
+     * @return where this Hexagon is when rendererd into a JavaFX Group (including the padding, at zoom 1.0)
      */
     public int getGraphicsXoffset() {
-        if (graphicsXoffset == 0) {
-            calculatePolygonPoints();
-        }
-        return graphicsXoffset;
+        checkMap();
+        return graphicsXoffset + map.graphicsXpadding;
     }
 
     /**
      *
-     * @return where this Hexagon is when rendererd into a JavaFX Group
+     * @return where this Hexagon is when rendererd into a JavaFX Group (including the padding, at zoom 1.0)
      */
     public int getGraphicsYoffset() {
-        if (graphicsYoffset == 0) {
-            calculatePolygonPoints();
-        }
+        checkMap();
+        return graphicsYoffset + map.graphicsYpadding;
+    }
+
+    /**
+     * @return where this Hexagon is within the Group of the HexagonMap, where the padding is not included since it is
+     * applied as a transform on that Group
+     */
+    int getLocalGraphicsXoffset() {
+        checkMap();
+        return graphicsXoffset;
+    }
+
+    /**
+     * @return where this Hexagon is within the Group of the HexagonMap, where the padding is not included since it is
+     * applied as a transform on that Group
+     */
+    int getLocalGraphicsYoffset() {
+        checkMap();
         return graphicsYoffset;
     }
 
     /**
      * This method is the safe way to change the background color since it makes
-     * sure that the change is made on the JavaFX Application thread.
+     * sure that the change is made on the JavaFX Application thread. If the Hexagon
+     * has been added to a HexagonMap, the change is applied together with all other
+     * changes made before the next pulse.
      *
      * @param c the color
      */
     public void setBackgroundColor(Color c) {
-        Platform.runLater(new UIupdater(this, c));
+        backgroundColor = c;
+        HexagonMap currentMap = map;
+        if (currentMap != null) {
+            currentMap.onColorChanged(this, c);
+            currentMap.colorUpdateBuffer.setColor(this, c);
+        } else {
+            Platform.runLater(new UIupdater(this, c));
+        }
+    }
+
+    /**
+     * @return the color most recently given to setBackgroundColor(), or null if it has never been called. Note that
+     * the color may not have been applied on the screen yet.
+     */
+    public Color getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Used by HexagonMap when the colors of many Hexagons are changed at once
+     */
+    void setBackgroundColorField(Color c) {
+        backgroundColor = c;
     }
 
     @Override
@@ -219,7 +312,7 @@ public class Hexagon extends Polygon {
     }
 
     /**
-     * Finds the cheapest path from here to the destination. The A* algorithm is used.
+     * Finds the cheapest path from here to the destination. Since every step costs the same, A* with jump points is used.
      * This method uses the method isBlockingPath() in Hexagon and the movement cost between neighboring hexagons is always 1.
      *
      * @param destination the target Hexagon
@@ -273,6 +366,10 @@ public class Hexagon extends Polygon {
         return (hexagonObj.getQ() == this.getQ() && hexagonObj.getR() == this.getR());
     }
 
+    HexagonMap getMap() {
+        return map;
+    }
+
     /**
      * This gives the Hexagon access a HexagonMap without actually adding it to the HexagonMap. It can be useful e.g. if you want
      * to make some calculations before creating another Hexagon.
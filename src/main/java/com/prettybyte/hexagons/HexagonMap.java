@@ -2,12 +2,24 @@ package com.prettybyte.hexagons;
 
 import javafx.scene.Group;
 import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
 
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
 import static java.lang.Math.sqrt;
 
 public class HexagonMap {
@@ -17,13 +29,36 @@ public class HexagonMap {
     int graphicsYpadding = 0;
     private MapGenerator mapGenerator;
     boolean renderCoordinates = false;
+    double zoom = 1.0;
+    double lowDetailZoom = 0.5;
     private GridDrawer gridDrawer = new GridDrawer(this);
     private HashMap<GridPosition, Hexagon> hexagons = new HashMap<>();
+    private final HashMap<String, HashSet<Hexagon>> tags = new HashMap<>();
+    private int minQ = Integer.MAX_VALUE, maxQ = Integer.MIN_VALUE;     // The extent of the Hexagons that have been added
+    private int minR = Integer.MAX_VALUE, maxR = Integer.MIN_VALUE;     // (it doesn't shrink when they are removed)
+    private int minS = Integer.MAX_VALUE, maxS = Integer.MIN_VALUE;
+    final ColorUpdateBuffer colorUpdateBuffer = new ColorUpdateBuffer();
+    private volatile HexagonMapJournal journal;         // Read by setBackgroundColor(), which may be called from any thread
+    private volatile HexagonPyramid pyramid;
+    double pyramidRenderingSize = 3;
+    volatile IQueryListener queryListener;
     IHexagonClickedCallback onHexClickedCallback = hexagon -> {
     };
+    IHexagonEnteredCallback onHexEnteredCallback = hexagon -> {
+    };
+    IHexagonExitedCallback onHexExitedCallback = hexagon -> {
+    };
 
     public enum Direction {NORTHWEST, NORTHEAST, EAST, SOUTHEAST, SOUTHWEST, WEST}
 
+    /**
+     * How the color of a Hexagon is found when a HexagonMap is generated from an Image.
+     * CENTER_PIXEL uses the pixel under the center of the Hexagon.
+     * AREA_AVERAGE uses the average of all pixels under the Hexagon, which looks better when the Image has a much
+     * higher resolution than the HexagonMap.
+     */
+    public enum ImageSampling {CENTER_PIXEL, AREA_AVERAGE}
+
 
     /**
      * Creates an empty HexagonMap
@@ -42,12 +77,9 @@ public class HexagonMap {
      * @param mapWidthInHexes the number of hexagons on the x-axis
      */
     public HexagonMap(int hexagonSize, Image image, int mapWidthInHexes) {
-        this.hexagonSize = hexagonSize;
-        mapGenerator = new MapGenerator(this, image, mapWidthInHexes);
-        mapGenerator.generate((q, r, imagePixelColor, map) -> {
-            Hexagon h = new Hexagon(q, r);
+        this(hexagonSize, image, mapWidthInHexes, (q, r, imagePixelColor, map) -> {
+            Hexagon h = map.addHexagon(new Hexagon(q, r));
             h.setBackgroundColor(imagePixelColor);
-            map.addHexagon(h);
         });
     }
 
@@ -61,27 +93,77 @@ public class HexagonMap {
      *                        generated from the Image. In it's most basic form:
      *                        <p>
      *                        public void createHexagon(int q, int r, Color imagePixelColor, HexagonMap map) {
-     *                        Hexagon h = new Hexagon(q, r);
+     *                        Hexagon h = map.addHexagon(new Hexagon(q, r));
      *                        h.setBackgroundColor(imagePixelColor);
-     *                        map.addHexagon(h);
      *                        }
      */
     public HexagonMap(int hexagonSize, Image image, int mapWidthInHexes, IHexagonCreator hexagonCreator) {
+        this(hexagonSize, image, mapWidthInHexes, hexagonCreator, ImageSampling.CENTER_PIXEL);
+    }
+
+    /**
+     * Generates a HexagonMap from an Image
+     *
+     * @param hexagonSize     the distance between the center and one corner
+     * @param image           an Image which will be used to generate a HexagonMap
+     * @param mapWidthInHexes the number of hexagons on the x-axis
+     * @param hexagonCreator  a class implementing IHexagonCreator
+     * @param sampling        how the color that is given to the IHexagonCreator is found
+     */
+    public HexagonMap(int hexagonSize, Image image, int mapWidthInHexes, IHexagonCreator hexagonCreator, ImageSampling sampling) {
         this.hexagonSize = hexagonSize;
-        mapGenerator = new MapGenerator(this, image, mapWidthInHexes);
+        mapGenerator = new MapGenerator(this, new ImagePixelSource(image), mapWidthInHexes, sampling);
+        try {
+            mapGenerator.generate(hexagonCreator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);       // Reading from an Image does not throw IOException
+        }
+    }
+
+    /**
+     * Generates a HexagonMap from an image that is read a few rows at a time, e.g. a RawRgbaFile. This makes it
+     * possible to use images that are too large to keep in memory. The Hexagons are created row by row, as soon
+     * as the image rows they cover have been read.
+     *
+     * @param hexagonSize     the distance between the center and one corner
+     * @param source          the image which will be used to generate a HexagonMap
+     * @param mapWidthInHexes the number of hexagons on the x-axis
+     * @param hexagonCreator  a class implementing IHexagonCreator
+     * @param sampling        how the color that is given to the IHexagonCreator is found
+     * @throws IOException if the image cannot be read
+     */
+    public HexagonMap(int hexagonSize, IPixelSource source, int mapWidthInHexes, IHexagonCreator hexagonCreator, ImageSampling sampling) throws IOException {
+        this.hexagonSize = hexagonSize;
+        mapGenerator = new MapGenerator(this, source, mapWidthInHexes, sampling);
         mapGenerator.generate(hexagonCreator);
     }
 
     /**
-     * Tells the renderer that you want some space before the HexagonMap is rendered
+     * Generates a HexagonMap procedurally, e.g. from noise. The colors are calculated in parallel but the result is
+     * always the same for the same seed, so the map does not have to be sent to other computers; they can generate
+     * it themselves.
+     *
+     * @param hexagonSize      the distance between the center and one corner
+     * @param mapWidthInHexes  the number of hexagons on the x-axis
+     * @param mapHeightInHexes the number of hexagons on the y-axis
+     * @param seed             given to the colorFunction
+     * @param colorFunction    calculates the color of each Hexagon, e.g. (q, r, seed) -&gt; noise.getValue(q, r) &gt; 0.5 ? Color.GREEN : Color.BLUE
+     * @param hexagonCreator   a class implementing IHexagonCreator, which gets the calculated color. Like when a
+     *                         HexagonMap is generated from an Image, this is how you decide HOW the Hexagons are created.
+     */
+    public HexagonMap(int hexagonSize, int mapWidthInHexes, int mapHeightInHexes, long seed, IHexagonColorFunction colorFunction, IHexagonCreator hexagonCreator) {
+        this.hexagonSize = hexagonSize;
+        new ProceduralGenerator(this, mapWidthInHexes, mapHeightInHexes, seed, colorFunction).generate(hexagonCreator);
+    }
+
+    /**
+     * Tells the renderer that you want some space before the HexagonMap is rendered. The padding is applied as a
+     * transform on the Group, so changing it is cheap even for large maps.
      */
     public void setPadding(int left, int top) {
         graphicsXpadding = left;
         graphicsYpadding = top;
-        for (Hexagon h : getAllHexagons()) {
-            h.getPoints().removeAll(h.getPoints());
-            h.init();
-        }
+        gridDrawer.updateTransform();
     }
 
     private double getGraphicsHexagonWidth() {
@@ -107,16 +189,145 @@ public class HexagonMap {
      */
     public Hexagon addHexagon(Hexagon hexagon) {
         hexagon.setMap(this);
-        hexagons.put(hexagon.position, hexagon);
+        Hexagon replaced = hexagons.put(hexagon.position, hexagon);
+        updateExtent(hexagon.position);
+        if (replaced != null && replaced != hexagon) {
+            gridDrawer.forget(replaced);
+            removeTags(replaced);
+        }
+        if (journal != null) {
+            journal.recordAdd(hexagon);
+        }
+        if (pyramid != null) {
+            pyramid.onHexagonChanged(hexagon);
+        }
         return hexagon;
     }
 
+    private void updateExtent(GridPosition position) {
+        int s = -position.q - position.r;
+        minQ = Math.min(minQ, position.q);
+        maxQ = Math.max(maxQ, position.q);
+        minR = Math.min(minR, position.r);
+        maxR = Math.max(maxR, position.r);
+        minS = Math.min(minS, s);
+        maxS = Math.max(maxS, s);
+    }
+
+    /**
+     * @return no Hexagon in the map is more than this many steps from the position (or -1 if the map is empty)
+     */
+    long getMaxDistanceFrom(GridPosition position) {
+        if (minQ > maxQ) {
+            return -1;
+        }
+        long s = -(long) position.q - position.r;
+        return Math.max(Math.max(Math.max((long) maxQ - position.q, (long) position.q - minQ),
+                Math.max((long) maxR - position.r, (long) position.r - minR)),
+                Math.max(maxS - s, s - minS));
+    }
+
+    /**
+     * Changes the background color of many Hexagons at once. Like Hexagon.setBackgroundColor() this can be called
+     * from any thread, and the changes are applied on the JavaFX Application thread in one pass.
+     *
+     * @param colors the new color of each Hexagon. The Hexagons must have been added to this HexagonMap.
+     * @throws IllegalArgumentException if a Hexagon has not been added to this HexagonMap. No color is changed then.
+     */
+    public void setBackgroundColors(Map<Hexagon, Color> colors) {
+        for (Hexagon hexagon : colors.keySet()) {
+            if (hexagons.get(hexagon.position) != hexagon) {
+                throw new IllegalArgumentException("The Hexagon " + hexagon.position.getCoordinates() + " has not been added to this HexagonMap");
+            }
+        }
+        Object event = FlightRecorder.beginBulkMutation();
+        for (Map.Entry<Hexagon, Color> entry : colors.entrySet()) {
+            entry.getKey().setBackgroundColorField(entry.getValue());
+            onColorChanged(entry.getKey(), entry.getValue());
+        }
+        colorUpdateBuffer.setColors(colors);
+        FlightRecorder.commitBulkMutation(event, "setBackgroundColors", colors.size());
+    }
+
     /**
      * Removes a Hexagon from the HexagonMap
      */
     public void removeHexagon(Hexagon hexagon) {
         hexagon.setMap(null);
         hexagons.remove(hexagon.position);
+        gridDrawer.forget(hexagon);
+        removeTags(hexagon);
+        if (journal != null) {
+            journal.recordRemove(hexagon);
+        }
+        if (pyramid != null) {
+            pyramid.onHexagonChanged(hexagon);
+        }
+    }
+
+    void onFlagsChanged(Hexagon hexagon) {
+        if (journal != null) {
+            journal.recordFlags(hexagon);
+        }
+        if (pyramid != null) {
+            pyramid.onHexagonChanged(hexagon);
+        }
+    }
+
+    void onColorChanged(Hexagon hexagon, Color color) {
+        if (journal != null) {
+            journal.recordColor(hexagon, color);
+        }
+        if (pyramid != null) {
+            pyramid.onHexagonChanged(hexagon);
+        }
+    }
+
+    /**
+     * Starts recording all changes to this HexagonMap, e.g. to send them to copies of the map. The journal starts
+     * with a snapshot of the current state. Like addHexagon(), this must be called on the thread that changes the
+     * map.
+     *
+     * @return the journal (the same one if it has already been started)
+     */
+    public HexagonMapJournal startJournal() {
+        if (journal == null) {
+            HexagonMapJournal newJournal = new HexagonMapJournal(this);
+            newJournal.compact();
+            journal = newJournal;
+        }
+        return journal;
+    }
+
+    /**
+     * Stops recording changes
+     */
+    public void stopJournal() {
+        journal = null;
+    }
+
+    /**
+     * Builds coarser levels of this map, where every cell is made of the cells within radius steps on the level
+     * below, see HexagonPyramid. The pyramid is kept up to date when Hexagons are added, removed or changed, and
+     * render() draws its cells when the zoom is low. A new pyramid replaces the previous one.
+     *
+     * @param pathInfoSupplier decides which Hexagons are blocking and the costs of the cells
+     */
+    public HexagonPyramid createPyramid(int radius, int levels, IPathInfoSupplier pathInfoSupplier) {
+        pyramid = new HexagonPyramid(this, radius, levels, pathInfoSupplier);
+        return pyramid;
+    }
+
+    public HexagonPyramid createPyramid(int radius, int levels) {
+        return createPyramid(radius, levels, new DefaultPathInfoSupplier());
+    }
+
+    public void removePyramid() {
+        pyramid = null;
+    }
+
+    HexagonPyramid getPyramid() {
+        return pyramid;
     }
 
     /**
@@ -144,6 +355,10 @@ public class HexagonMap {
         return result;
     }
 
+    Hexagon getHexagonOrNull(int q, int r) {
+        return hexagons.get(new GridPosition(q, r));
+    }
+
     Hexagon getHexagon(GridPosition position) throws NoHexagonFoundException {
         return getHexagon(position.q, position.r);
     }
@@ -152,6 +367,35 @@ public class HexagonMap {
         return getHexagon(x, z);
     }
 
+    /**
+     * Finds the Hexagons that are rendered (at least partly) inside a rectangle. Only the positions inside the
+     * rectangle are examined, so the cost depends on the size of the rectangle and not on the size of the map.
+     *
+     * @param x      the left edge, in the same coordinates as getGraphicsXoffset()
+     * @param y      the top edge, in the same coordinates as getGraphicsYoffset()
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     */
+    ArrayList<Hexagon> getHexagonsInArea(double x, double y, double width, double height) {
+        ArrayList<Hexagon> result = new ArrayList<>();
+        double horizontalDistance = getGraphicsHorizontalDistanceBetweenHexagons();
+        double verticalDistance = getGraphicsverticalDistanceBetweenHexagons();
+        // The inverse of the calculation in Hexagon, widened by one hexagon so that partly visible ones are included
+        int rMin = (int) floor((y - graphicsYpadding - hexagonSize) / verticalDistance) - 1;
+        int rMax = (int) ceil((y + height - graphicsYpadding + hexagonSize) / verticalDistance) + 1;
+        for (int r = rMin; r <= rMax; r++) {
+            int qMin = (int) floor((x - graphicsXpadding - horizontalDistance) / horizontalDistance - 0.5 * r) - 1;
+            int qMax = (int) ceil((x + width - graphicsXpadding + horizontalDistance) / horizontalDistance - 0.5 * r) + 1;
+            for (int q = qMin; q <= qMax; q++) {
+                Hexagon hexagon = hexagons.get(new GridPosition(q, r));
+                if (hexagon != null) {
+                    result.add(hexagon);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * @return all Hexagons that has been added to the map
      */
@@ -159,6 +403,103 @@ public class HexagonMap {
         return hexagons.values();
     }
 
+    /**
+     * Adds a tag (e.g. "water" or "unexplored") to a Hexagon. The HexagonMap keeps an index from every tag to its
+     * Hexagons, so getHexagonsWithTag() and findNearest() don't have to look at all Hexagons. A Hexagon can have any
+     * number of tags, and it loses them when it is removed from the map (or replaced by another Hexagon).
+     *
+     * @throws IllegalArgumentException if the Hexagon has not been added to this HexagonMap
+     */
+    public void tag(Hexagon hexagon, String tag) {
+        if (hexagons.get(hexagon.position) != hexagon) {
+            throw new IllegalArgumentException("The Hexagon " + hexagon.position.getCoordinates() + " has not been added to this HexagonMap");
+        }
+        tags.computeIfAbsent(tag, t -> new HashSet<>()).add(hexagon);
+    }
+
+    public void untag(Hexagon hexagon, String tag) {
+        HashSet<Hexagon> tagged = tags.get(tag);
+        if (tagged != null) {
+            tagged.remove(hexagon);
+        }
+    }
+
+    public boolean hasTag(Hexagon hexagon, String tag) {
+        HashSet<Hexagon> tagged = tags.get(tag);
+        return tagged != null && tagged.contains(hexagon);
+    }
+
+    /**
+     * @return the Hexagons that have the tag, in a set that can't be modified. If any Hexagon had the tag, the set
+     * reflects later calls to tag() and untag().
+     */
+    public Set<Hexagon> getHexagonsWithTag(String tag) {
+        HashSet<Hexagon> tagged = tags.get(tag);
+        return (tagged == null) ? Collections.emptySet() : Collections.unmodifiableSet(tagged);
+    }
+
+    private void removeTags(Hexagon hexagon) {
+        for (HashSet<Hexagon> tagged : tags.values()) {
+            tagged.remove(hexagon);
+        }
+    }
+
+    /**
+     * Finds the closest Hexagon that has the tag. If several are equally close, any of them is returned.
+     *
+     * @param maxRadius the search stops at this many steps from origin
+     */
+    public Optional<Hexagon> findNearest(Hexagon origin, String tag, int maxRadius) {
+        return findNearest(origin, tag, maxRadius, 1).stream().findFirst();
+    }
+
+    /**
+     * Finds the k closest Hexagons that have the tag, the closest first
+     *
+     * @param maxRadius the search stops at this many steps from origin
+     */
+    public List<Hexagon> findNearest(Hexagon origin, String tag, int maxRadius, int k) {
+        return NearestSearch.findNearest(this, origin, getHexagonsWithTag(tag), maxRadius, k);
+    }
+
+    /**
+     * Finds the closest Hexagon that matches the predicate. The rings around origin are examined one at a time, and
+     * the search stops at the first match.
+     *
+     * @param maxRadius the search stops at this many steps from origin
+     */
+    public Optional<Hexagon> findNearest(Hexagon origin, Predicate<Hexagon> predicate, int maxRadius) {
+        return findNearest(origin, predicate, maxRadius, 1).stream().findFirst();
+    }
+
+    /**
+     * Finds the k closest Hexagons that match the predicate, the closest first
+     *
+     * @param maxRadius the search stops at this many steps from origin
+     */
+    public List<Hexagon> findNearest(Hexagon origin, Predicate<Hexagon> predicate, int maxRadius, int k) {
+        return NearestSearch.findNearest(this, origin, predicate, maxRadius, k);
+    }
+
+    /**
+     * Finds the Hexagon that matches the predicate and is cheapest to walk to. Unlike findNearest(), walls and
+     * movement costs are taken into account. A blocking Hexagon can be found, but the search doesn't pass through it.
+     *
+     * @param maxCost the search stops when walking further would cost more than this
+     */
+    public Optional<Hexagon> findNearestByPath(Hexagon origin, Predicate<Hexagon> predicate, int maxCost, IPathInfoSupplier pathInfoSupplier) {
+        return findNearestByPath(origin, predicate, maxCost, pathInfoSupplier, 1).stream().findFirst();
+    }
+
+    /**
+     * Finds the k Hexagons that match the predicate and are cheapest to walk to, the cheapest first
+     *
+     * @param maxCost the search stops when walking further would cost more than this
+     */
+    public List<Hexagon> findNearestByPath(Hexagon origin, Predicate<Hexagon> predicate, int maxCost, IPathInfoSupplier pathInfoSupplier, int k) {
+        return NearestSearch.findNearestByPath(origin, predicate, maxCost, pathInfoSupplier, k);
+    }
+
 
     static class DefaultPathInfoSupplier implements IPathInfoSupplier {
         @Override
@@ -170,6 +511,11 @@ public class HexagonMap {
         public int getMovementCost(Hexagon from, Hexagon to) {
             return 1;
         }
+
+        @Override
+        public boolean hasUniformMovementCost() {
+            return true;
+        }
     }
 
     /**
@@ -203,7 +549,10 @@ public class HexagonMap {
     }
 
     /**
-     * Renders the HexagonMap
+     * Renders the HexagonMap. The hexagons are put in a Group that belongs to the HexagonMap, and that Group is added
+     * to the given Group. The padding and the zoom are applied to the Group of the HexagonMap only, so anything else
+     * in the given Group is left as it is. Rendering again replaces the hexagons, and moves the Group of the
+     * HexagonMap if another Group is given.
      *
      * @param group the JaxaFX Group where all the hexagons should be rendered
      */
@@ -211,6 +560,46 @@ public class HexagonMap {
         gridDrawer.draw(group);
     }
 
+    /**
+     * Renders only the part of the HexagonMap that is visible. Call this method again whenever the visible area
+     * or the zoom changes; Hexagons that are already in the Group are reused. This makes the rendering time depend
+     * on the size of the screen rather than on the size of the HexagonMap.
+     * Like render(Group), the hexagons are put in a Group that belongs to the HexagonMap, so the rest of the given
+     * Group is left as it is.
+     *
+     * @param group  the JaxaFX Group where the visible hexagons should be rendered
+     * @param x      the left edge of the visible area, in the coordinates of the given Group
+     * @param y      the top edge of the visible area, in the coordinates of the given Group
+     * @param width  the width of the visible area
+     * @param height the height of the visible area
+     */
+    public void render(Group group, double x, double y, double width, double height) {
+        gridDrawer.drawVisibleArea(group, x, y, width, height);
+    }
+
+    /**
+     * Scales the rendered HexagonMap. 1.0 is the normal size.
+     */
+    public void setZoom(double zoom) {
+        this.zoom = zoom;
+        gridDrawer.updateTransform();
+    }
+
+    /**
+     * When the zoom is below this level, strokes and coordinates are not rendered. The default is 0.5
+     */
+    public void setLowDetailZoom(double zoom) {
+        lowDetailZoom = zoom;
+    }
+
+    /**
+     * When there is a pyramid (see createPyramid()) and the Hexagons would be rendered smaller than this (in pixels),
+     * the cells of the first level that is large enough are rendered instead. The default is 3
+     */
+    public void setPyramidRenderingSize(double pixels) {
+        pyramidRenderingSize = pixels;
+    }
+
     /**
      * A callback when the user clicks on a Hexagon
      */
@@ -218,4 +607,29 @@ public class HexagonMap {
         onHexClickedCallback = callback;
     }
 
+    /**
+     * Receives metrics (e.g. the number of examined Hexagons and the elapsed time) after every pathfinding, field of
+     * view, ring and line query on this HexagonMap. When no listener is set, the metrics are not collected.
+     * QueryStatistics is a listener that aggregates the metrics into histograms.
+     *
+     * @param listener the listener, or null to stop listening
+     */
+    public void setQueryListener(IQueryListener listener) {
+        queryListener = listener;
+    }
+
+    /**
+     * A callback when the mouse pointer moves into a Hexagon
+     */
+    public void setOnHexagonEnteredCallback(IHexagonEnteredCallback callback) {
+        onHexEnteredCallback = callback;
+    }
+
+    /**
+     * A callback when the mouse pointer leaves a Hexagon
+     */
+    public void setOnHexagonExitedCallback(IHexagonExitedCallback callback) {
+        onHexExitedCallback = callback;
+    }
+
 }
@@ -0,0 +1,287 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A compact binary file format for HexagonMaps. The file is saved with one sequential write and opened by
+ * memory-mapping it, so the Hexagons can be read directly from the file without first loading all of it.
+ * <p>
+ * The layout (big-endian) is a header followed by one column per property:
+ * <pre>
+ * int    magic ("HEXM")
+ * int    version
+ * int    hexagon size
+ * int    number of Hexagons (n)
+ * int    number of attribute columns (a)
+ * a x    attribute name (short length + UTF-8 bytes)
+ *        padding to a multiple of 4 bytes
+ * n x    int q
+ * n x    int r
+ * n x    int color (ARGB)
+ * a x n x int attribute value
+ * n x    byte flags (blocking path, visual obstacle, has color)
+ * </pre>
+ */
+public class HexagonMapFile implements Closeable {
+
+    private static final int MAGIC = 0x4845584D;
+    private static final int VERSION = 1;
+    private static final byte FLAG_BLOCKING_PATH = 1;
+    private static final byte FLAG_VISUAL_OBSTACLE = 2;
+    private static final byte FLAG_HAS_COLOR = 4;
+
+    private final FileChannel channel;
+    private final int hexagonSize;
+    private final int size;
+    private final IntBuffer qColumn, rColumn, colorColumn;
+    private final ByteBuffer flagColumn;
+    private final LinkedHashMap<String, IntBuffer> attributeColumns = new LinkedHashMap<>();
+
+    private HexagonMapFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {      // save() never writes more, and a ByteBuffer can't map more
+            throw new IOException("Not a HexagonMap file: it is larger than 2 GB");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a HexagonMap file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported HexagonMap file version: " + version);
+            }
+            hexagonSize = buffer.getInt();
+            size = buffer.getInt();
+            int attributeCount = buffer.getInt();
+            List<String> attributeNames = new ArrayList<>();
+            for (int i = 0; i < attributeCount; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xffff];      // Unsigned, in case another writer used the full range
+                buffer.get(name);
+                attributeNames.add(new String(name, StandardCharsets.UTF_8));
+            }
+            buffer.position(align(buffer.position()));
+
+            qColumn = intColumn(buffer);
+            rColumn = intColumn(buffer);
+            colorColumn = intColumn(buffer);
+            for (String name : attributeNames) {
+                attributeColumns.put(name, intColumn(buffer));
+            }
+            flagColumn = slice(buffer, size);
+        } catch (RuntimeException e) {      // E.g. BufferUnderflowException if the file is truncated
+            throw new IOException("Corrupt HexagonMap file", e);
+        }
+    }
+
+    private IntBuffer intColumn(ByteBuffer buffer) {
+        return slice(buffer, size * 4).asIntBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        if (buffer.remaining() < length) {
+            throw new IllegalStateException("The file is truncated");
+        }
+        ByteBuffer column = buffer.slice();
+        column.limit(length);
+        buffer.position(buffer.position() + length);
+        return column;
+    }
+
+    private static int align(int position) {
+        return (position + 3) & ~3;
+    }
+
+    /**
+     * Opens a file that has been saved with save(). The file is memory-mapped and nothing is read until it is used.
+     */
+    public static HexagonMapFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new HexagonMapFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the Hexagons of the map: their positions, isBlockingPath, isVisualObstacle and background color
+     */
+    public static void save(HexagonMap map, Path path) throws IOException {
+        save(map, path, Collections.emptyMap());
+    }
+
+    /**
+     * Saves the Hexagons of the map: their positions, isBlockingPath, isVisualObstacle and background color, and
+     * also your own attributes, e.g. if you have extended the Hexagon class.
+     *
+     * @param attributes the name of each attribute, and how to get its value from a Hexagon
+     * @throws IllegalArgumentException if the name of an attribute is longer than Short.MAX_VALUE bytes in UTF-8
+     */
+    public static void save(HexagonMap map, Path path, Map<String, ToIntFunction<Hexagon>> attributes) throws IOException {
+        Collection<Hexagon> hexagons = map.getAllHexagons();
+        int n = hexagons.size();
+        List<byte[]> names = new ArrayList<>();
+        int headerSize = 5 * 4;
+        for (String name : attributes.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("The name of an attribute can be at most " + Short.MAX_VALUE + " bytes in UTF-8");
+            }
+            names.add(bytes);
+            headerSize += 2 + bytes.length;
+        }
+        headerSize = align(headerSize);
+        long fileSize = headerSize + (long) n * 4 * (3 + attributes.size()) + n;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("The map is too large to be saved in one file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(map.hexagonSize).putInt(n).putInt(attributes.size());
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length).put(name);
+        }
+        buffer.position(headerSize);
+        IntBuffer q = intColumn(buffer, n);
+        IntBuffer r = intColumn(buffer, n);
+        IntBuffer color = intColumn(buffer, n);
+        List<IntBuffer> attributeValues = new ArrayList<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            attributeValues.add(intColumn(buffer, n));
+        }
+        for (Hexagon hexagon : hexagons) {
+            q.put(hexagon.getQ());
+            r.put(hexagon.getR());
+            Color backgroundColor = hexagon.getBackgroundColor();
+            color.put(backgroundColor == null ? 0 : Colors.toArgb(backgroundColor));
+            int i = 0;
+            for (ToIntFunction<Hexagon> attribute : attributes.values()) {
+                attributeValues.get(i++).put(attribute.applyAsInt(hexagon));
+            }
+            buffer.put((byte) ((hexagon.isBlockingPath() ? FLAG_BLOCKING_PATH : 0)
+                    | (hexagon.isVisualObstacle() ? FLAG_VISUAL_OBSTACLE : 0)
+                    | (backgroundColor != null ? FLAG_HAS_COLOR : 0)));
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static IntBuffer intColumn(ByteBuffer buffer, int n) {
+        IntBuffer column = buffer.slice().asIntBuffer();
+        column.limit(n);
+        buffer.position(buffer.position() + n * 4);
+        return column;
+    }
+
+    /**
+     * @return the number of Hexagons in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getHexagonSize() {
+        return hexagonSize;
+    }
+
+    public int getQ(int index) {
+        return qColumn.get(index);
+    }
+
+    public int getR(int index) {
+        return rColumn.get(index);
+    }
+
+    public boolean isBlockingPath(int index) {
+        return (flagColumn.get(index) & FLAG_BLOCKING_PATH) != 0;
+    }
+
+    public boolean isVisualObstacle(int index) {
+        return (flagColumn.get(index) & FLAG_VISUAL_OBSTACLE) != 0;
+    }
+
+    /**
+     * @return the background color, or null if the Hexagon had no background color when it was saved
+     */
+    public Color getColor(int index) {
+        return (flagColumn.get(index) & FLAG_HAS_COLOR) != 0 ? Colors.fromArgb(colorColumn.get(index)) : null;
+    }
+
+    /**
+     * @return the names of the attributes that were saved together with the Hexagons
+     */
+    public List<String> getAttributeNames() {
+        return new ArrayList<>(attributeColumns.keySet());
+    }
+
+    public int getAttribute(String name, int index) {
+        IntBuffer column = attributeColumns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("There is no attribute called " + name);
+        }
+        return column.get(index);
+    }
+
+    /**
+     * Creates a HexagonMap with one Hexagon for every Hexagon in the file
+     */
+    public HexagonMap toHexagonMap() {
+        return toHexagonMap((q, r, color, map) -> {
+            Hexagon h = map.addHexagon(new Hexagon(q, r));
+            if (color != null) {
+                h.setBackgroundColor(color);
+            }
+        });
+    }
+
+    /**
+     * Creates a HexagonMap where the Hexagons are created by your IHexagonCreator (the color may be null). If a
+     * Hexagon is added to the map, isBlockingPath and isVisualObstacle are then set on it.
+     */
+    public HexagonMap toHexagonMap(IHexagonCreator creator) {
+        Object event = FlightRecorder.beginBulkMutation();
+        HexagonMap map = new HexagonMap(hexagonSize);
+        for (int i = 0; i < size; i++) {
+            int q = getQ(i);
+            int r = getR(i);
+            creator.createHexagon(q, r, getColor(i), map);
+            try {
+                Hexagon hexagon = map.getHexagon(q, r);
+                hexagon.setIsBlockingPath(isBlockingPath(i));
+                hexagon.setIsVisualObstacle(isVisualObstacle(i));
+            } catch (NoHexagonFoundException ignored) {
+            }
+        }
+        FlightRecorder.commitBulkMutation(event, "toHexagonMap", size);
+        return map;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,259 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * An append-only log of all changes made to a HexagonMap: added and removed Hexagons, isBlockingPath,
+ * isVisualObstacle and background colors. The log can be read from any offset and replayed onto another
+ * HexagonMap, which makes it possible to keep copies of a map in sync by sending only the changes.
+ * <p>
+ * To keep the log from growing forever, it can be compacted into a snapshot of the current state. A new copy is
+ * created by replaying the snapshot, and then the entries from the snapshot offset.
+ * <p>
+ * The journal can be read from any thread. Compacting reads all Hexagons of the map, so it belongs to the thread that
+ * adds and removes Hexagons, like the HexagonMap itself: call compact() there, and automatic compaction is only done
+ * when that thread changes the map. Colors, which can be changed from any thread, never trigger it.
+ * <p>
+ * Each entry is one byte telling what kind of change it is, followed by the position of the Hexagon (q and r as
+ * variable length integers) and the new values.
+ */
+public class HexagonMapJournal {
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte FLAGS = 3;
+    private static final byte COLOR = 4;
+    private static final byte NO_COLOR = 5;
+
+    private static final byte FLAG_BLOCKING_PATH = 1;
+    private static final byte FLAG_VISUAL_OBSTACLE = 2;
+    private static final byte FLAG_HAS_COLOR = 4;
+
+    private final HexagonMap map;
+    private final Log entries = new Log();
+    private long startOffset = 0;
+    private byte[] snapshot = new byte[0];
+    private long snapshotOffset = 0;
+    private int compactionThreshold = 0;
+
+    HexagonMapJournal(HexagonMap map) {
+        this.map = map;
+    }
+
+    /**
+     * @return the offset after the last entry, i.e. where the next entry will be written
+     */
+    public synchronized long getEndOffset() {
+        return startOffset + entries.size();
+    }
+
+    /**
+     * @return the offset of the oldest entry that can still be read. Everything before it has been compacted
+     * into the snapshot.
+     */
+    public synchronized long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Reads all entries from an offset. A copy that has replayed everything up to that offset can replay the
+     * result and then continue from getEndOffset().
+     *
+     * @param fromOffset an offset previously returned by getEndOffset() or getSnapshotOffset()
+     * @throws IllegalArgumentException if the entries at fromOffset have been compacted
+     */
+    public synchronized byte[] read(long fromOffset) {
+        if (fromOffset < startOffset || fromOffset > getEndOffset()) {
+            throw new IllegalArgumentException("Offset " + fromOffset + " is not in the journal (" + startOffset + " - " + getEndOffset() + "). Replay the snapshot instead.");
+        }
+        return entries.copyFrom((int) (fromOffset - startOffset));
+    }
+
+    /**
+     * @return entries that recreate the state of the HexagonMap at getSnapshotOffset()
+     */
+    public synchronized byte[] getSnapshot() {
+        return snapshot.clone();
+    }
+
+    public synchronized long getSnapshotOffset() {
+        return snapshotOffset;
+    }
+
+    /**
+     * Replaces all entries with a snapshot of the current state of the HexagonMap. Must be called on the thread that
+     * adds and removes Hexagons.
+     */
+    public synchronized void compact() {
+        Log log = new Log();
+        for (Hexagon hexagon : map.getAllHexagons()) {
+            writeAdd(log, hexagon);
+        }
+        snapshot = log.copyFrom(0);
+        snapshotOffset = getEndOffset();
+        startOffset = snapshotOffset;
+        entries.reset();
+    }
+
+    /**
+     * The journal is compacted automatically when the entries after the snapshot exceed this size, the next time a
+     * Hexagon is added or removed or its flags are changed
+     *
+     * @param bytes the size, or 0 to never compact automatically (the default)
+     */
+    public synchronized void setCompactionThreshold(int bytes) {
+        compactionThreshold = bytes;
+    }
+
+    /**
+     * Applies entries from a HexagonMapJournal to a HexagonMap. Hexagons are created with new Hexagon(q, r).
+     *
+     * @param journalEntries entries returned by read() or getSnapshot()
+     */
+    public static void replay(byte[] journalEntries, HexagonMap target) {
+        Object event = FlightRecorder.beginBulkMutation();
+        HashSet<GridPosition> changed = FlightRecorder.isEnabled(event) ? new HashSet<>() : null;     // A Hexagon may have many entries
+        ByteBuffer buffer = ByteBuffer.wrap(journalEntries);
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            int q = readVarInt(buffer);
+            int r = readVarInt(buffer);
+            if (changed != null) {
+                changed.add(new GridPosition(q, r));
+            }
+            if (type == ADD) {
+                byte flags = buffer.get();
+                Hexagon hexagon = target.addHexagon(new Hexagon(q, r));
+                setFlags(hexagon, flags);
+                if ((flags & FLAG_HAS_COLOR) != 0) {
+                    hexagon.setBackgroundColor(Colors.fromArgb(buffer.getInt()));
+                }
+                continue;
+            }
+            Hexagon hexagon;
+            try {
+                hexagon = target.getHexagon(q, r);
+            } catch (NoHexagonFoundException e) {
+                throw new IllegalStateException("The journal does not match the HexagonMap: " + e.getMessage());
+            }
+            switch (type) {
+                case REMOVE:
+                    target.removeHexagon(hexagon);
+                    break;
+                case FLAGS:
+                    setFlags(hexagon, buffer.get());
+                    break;
+                case COLOR:
+                    hexagon.setBackgroundColor(Colors.fromArgb(buffer.getInt()));
+                    break;
+                case NO_COLOR:
+                    hexagon.setBackgroundColor(null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal entry type: " + type);
+            }
+        }
+        FlightRecorder.commitBulkMutation(event, "replayJournal", (changed == null) ? 0 : changed.size());
+    }
+
+    private static void setFlags(Hexagon hexagon, byte flags) {
+        hexagon.setIsBlockingPath((flags & FLAG_BLOCKING_PATH) != 0);
+        hexagon.setIsVisualObstacle((flags & FLAG_VISUAL_OBSTACLE) != 0);
+    }
+
+    // --------------------- Recording, called by HexagonMap --------------------------------------------
+
+    synchronized void recordAdd(Hexagon hexagon) {
+        writeAdd(entries, hexagon);
+        compactIfNeeded();
+    }
+
+    synchronized void recordRemove(Hexagon hexagon) {
+        writeHeader(entries, REMOVE, hexagon);
+        compactIfNeeded();
+    }
+
+    synchronized void recordFlags(Hexagon hexagon) {
+        writeHeader(entries, FLAGS, hexagon);
+        entries.write(getFlags(hexagon));
+        compactIfNeeded();
+    }
+
+    synchronized void recordColor(Hexagon hexagon, Color color) {
+        if (color == null) {
+            writeHeader(entries, NO_COLOR, hexagon);
+        } else {
+            writeHeader(entries, COLOR, hexagon);
+            entries.writeInt(Colors.toArgb(color));
+        }
+        // Not compacted here, since this may be called from any thread while the map is changed
+    }
+
+    private void compactIfNeeded() {
+        if (compactionThreshold > 0 && entries.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    private static void writeAdd(Log log, Hexagon hexagon) {
+        writeHeader(log, ADD, hexagon);
+        Color color = hexagon.getBackgroundColor();
+        log.write(getFlags(hexagon) | (color != null ? FLAG_HAS_COLOR : 0));
+        if (color != null) {
+            log.writeInt(Colors.toArgb(color));
+        }
+    }
+
+    private static void writeHeader(Log log, byte type, Hexagon hexagon) {
+        log.write(type);
+        log.writeVarInt(hexagon.getQ());
+        log.writeVarInt(hexagon.getR());
+    }
+
+    private static byte getFlags(Hexagon hexagon) {
+        return (byte) ((hexagon.isBlockingPath() ? FLAG_BLOCKING_PATH : 0) | (hexagon.isVisualObstacle() ? FLAG_VISUAL_OBSTACLE : 0));
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int zigZag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            zigZag |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    private static class Log extends ByteArrayOutputStream {
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        /**
+         * Small numbers, positive or negative, are written with few bytes (zigzag encoding)
+         */
+        void writeVarInt(int value) {
+            int zigZag = (value << 1) ^ (value >> 31);
+            while ((zigZag & ~0x7f) != 0) {
+                write((zigZag & 0x7f) | 0x80);
+                zigZag >>>= 7;
+            }
+            write(zigZag);
+        }
+
+        byte[] copyFrom(int offset) {
+            return Arrays.copyOfRange(buf, offset, count);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coarser versions of a HexagonMap, e.g. for rendering a whole continent or for strategic queries. On level 1, every
+ * cell is a "super hexagon" made of the Hexagons within radius steps from its center. On level 2, every cell is made
+ * of the level 1 cells within radius steps from its center, and so on. The cells tile the map without overlapping, and
+ * the cells of a level are themselves positioned like Hexagons, with their own q and r coordinates.
+ * <p>
+ * Every cell has the average color, the ratio of blocking Hexagons and visual obstacles, and an estimated cost of
+ * walking across it. When Hexagons are added, removed or changed, only the cells that contain them are marked, and they
+ * are calculated again the next time the pyramid is used.
+ * <p>
+ * Create a pyramid with HexagonMap.createPyramid(). When the zoom is low, render() then draws the cells of a suitable
+ * level instead of the Hexagons.
+ */
+public class HexagonPyramid {
+
+    /**
+     * A cell is blocking (or a visual obstacle) for the approximate queries if at least this part of its Hexagons are
+     */
+    public static final double BLOCKING_RATIO_THRESHOLD = 0.5;
+
+    private final HexagonMap map;
+    private final IPathInfoSupplier pathInfoSupplier;
+    private final int radius;
+    private final int cellSize;                                         // The number of positions in a cell
+    private final ArrayList<HashMap<GridPosition, Cell>> cells = new ArrayList<>();     // Level 1 is at index 0
+    private final ArrayList<Set<GridPosition>> dirtyCells = new ArrayList<>();
+
+    HexagonPyramid(HexagonMap map, int radius, int levels, IPathInfoSupplier pathInfoSupplier) {
+        if (radius < 1 || levels < 1) {
+            throw new IllegalArgumentException("The radius and the number of levels must be at least 1");
+        }
+        this.map = map;
+        this.pathInfoSupplier = pathInfoSupplier;
+        this.radius = radius;
+        this.cellSize = 3 * radius * radius + 3 * radius + 1;
+        for (int level = 1; level <= levels; level++) {
+            cells.add(new HashMap<>());
+            dirtyCells.add(ConcurrentHashMap.newKeySet());
+        }
+        for (Hexagon hexagon : map.getAllHexagons()) {
+            onHexagonChanged(hexagon);
+        }
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public int getLevels() {
+        return cells.size();
+    }
+
+    /**
+     * @return the cell on a level (1 or more) that contains the Hexagon
+     * @throws IllegalArgumentException if there is no such level
+     */
+    public synchronized Cell getCell(int level, Hexagon hexagon) {
+        checkLevel(level);
+        update();
+        return cells.get(level - 1).get(toLevel(level, hexagon.position));
+    }
+
+    /**
+     * @return all cells of a level (1 or more)
+     * @throws IllegalArgumentException if there is no such level
+     */
+    public synchronized Collection<Cell> getCells(int level) {
+        checkLevel(level);
+        update();
+        return Collections.unmodifiableCollection(new ArrayList<>(cells.get(level - 1).values()));
+    }
+
+    /**
+     * Estimates the cost of walking between two Hexagons by finding a path between the cells (on a level) that
+     * contain them. Cells where at least BLOCKING_RATIO_THRESHOLD of the Hexagons are blocking are avoided. This is
+     * much faster than getPathTo() for distant Hexagons, but can be wrong e.g. when a narrow pass is hidden in a cell.
+     *
+     * @return the estimated cost, or empty if there is no path between the cells
+     * @throws IllegalArgumentException if a Hexagon has not been added to the HexagonMap, or if there is no such level
+     */
+    public synchronized OptionalInt getApproximateDistance(Hexagon from, Hexagon to, int level) {
+        checkLevel(level);
+        checkHexagon(from);
+        checkHexagon(to);
+        update();
+        HashMap<GridPosition, Cell> levelCells = cells.get(level - 1);
+        Cell start = levelCells.get(toLevel(level, from.position));
+        Cell destination = levelCells.get(toLevel(level, to.position));
+        if (start == destination) {
+            // The same unit as between cells: the steps times the average cost of a step in the cell
+            double costPerStep = stepCost(start) / Math.pow(2 * radius + 1, level);
+            return OptionalInt.of((int) Math.round(GridPosition.getDistance(from.position, to.position) * costPerStep));
+        }
+        // Dijkstra between the cells. Moving from a cell to a neighbour costs half of the cost of crossing each of them.
+        HashMap<Cell, Double> costs = new HashMap<>();
+        HashSet<Cell> settled = new HashSet<>();
+        PriorityQueue<Reached> openSet = new PriorityQueue<>();
+        costs.put(start, 0.0);
+        openSet.add(new Reached(start, 0));
+        while (!openSet.isEmpty()) {
+            Reached reached = openSet.poll();
+            Cell current = reached.cell;
+            double cost = reached.cost;
+            if (current == destination) {
+                return OptionalInt.of((int) Math.round(cost));
+            }
+            if (!settled.add(current)) {
+                continue;
+            }
+            for (int direction = 0; direction < 6; direction++) {
+                GridPosition neighbourPosition = current.position.getNeighborPosition(GridPosition.getDirectionFromNumber(direction));
+                Cell neighbour = levelCells.get(neighbourPosition);
+                if (neighbour == null || settled.contains(neighbour)
+                        || (neighbour != destination && neighbour.blockingRatio >= BLOCKING_RATIO_THRESHOLD)) {
+                    continue;
+                }
+                double neighbourCost = cost + (stepCost(current) + stepCost(neighbour)) / 2;
+                Double previous = costs.get(neighbour);
+                if (previous == null || neighbourCost < previous) {
+                    costs.put(neighbour, neighbourCost);
+                    openSet.add(new Reached(neighbour, neighbourCost));
+                }
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    private double stepCost(Cell cell) {
+        return Double.isInfinite(cell.cost) ? Math.pow(2 * radius + 1, cell.level) : cell.cost;
+    }
+
+    /**
+     * Estimates if one Hexagon can be seen from another, by drawing a line between the cells (on a level) that contain
+     * them. The line is blocked by cells where at least BLOCKING_RATIO_THRESHOLD of the Hexagons are visual obstacles.
+     *
+     * @throws IllegalArgumentException if a Hexagon has not been added to the HexagonMap, or if there is no such level
+     */
+    public synchronized boolean isApproximatelyVisible(Hexagon from, Hexagon to, int level) {
+        checkLevel(level);
+        checkHexagon(from);
+        checkHexagon(to);
+        update();
+        HashMap<GridPosition, Cell> levelCells = cells.get(level - 1);
+        GridPosition start = toLevel(level, from.position);
+        GridPosition destination = toLevel(level, to.position);
+        if (start.equals(destination)) {
+            return true;
+        }
+        ArrayList<GridPosition> line = start.line(destination);
+        for (int i = 1; i < line.size() - 1; i++) {
+            Cell cell = levelCells.get(line.get(i));
+            if (cell != null && cell.visualObstacleRatio >= BLOCKING_RATIO_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkLevel(int level) {
+        if (level < 1 || level > getLevels()) {
+            throw new IllegalArgumentException("The level must be between 1 and " + getLevels() + ", not " + level);
+        }
+    }
+
+    private void checkHexagon(Hexagon hexagon) {
+        if (map.getHexagonOrNull(hexagon.getQ(), hexagon.getR()) != hexagon) {
+            throw new IllegalArgumentException("The Hexagon " + hexagon.position.getCoordinates() + " has not been added to the HexagonMap");
+        }
+    }
+
+    /**
+     * Called by HexagonMap when a Hexagon has been added, removed or changed. May be called from any thread.
+     */
+    void onHexagonChanged(Hexagon hexagon) {
+        Set<GridPosition> dirty = dirtyCells.get(0);
+        dirty.add(toCoarser(hexagon.position));
+        // The step cost of a Hexagon depends on which of its neighbours are blocking, and they may be in other cells
+        for (int direction = 0; direction < 6; direction++) {
+            dirty.add(toCoarser(hexagon.position.getNeighborPosition(GridPosition.getDirectionFromNumber(direction))));
+        }
+    }
+
+    /**
+     * Calculates the marked cells again, level by level, and marks the cells above them
+     */
+    private void update() {
+        for (int level = 1; level <= cells.size(); level++) {
+            Set<GridPosition> dirty = dirtyCells.get(level - 1);
+            if (dirty.isEmpty()) {
+                continue;
+            }
+            int cellLevel = level;
+            for (GridPosition position : new ArrayList<>(dirty)) {
+                dirty.remove(position);         // Before the cell is calculated, so that later changes mark it again
+                Cell cell = cells.get(level - 1).computeIfAbsent(position, p -> new Cell(p, cellLevel));
+                if (level == 1) {
+                    aggregateHexagons(cell);
+                } else {
+                    aggregateCells(cell, cells.get(level - 2));
+                }
+                if (cell.hexagonCount == 0) {
+                    cells.get(level - 1).remove(position);
+                }
+                if (level < cells.size()) {
+                    dirtyCells.get(level).add(toCoarser(position));
+                }
+            }
+        }
+    }
+
+    private void aggregateHexagons(Cell cell) {
+        Aggregate aggregate = new Aggregate();
+        GridPosition center = toFinerCenter(cell.position);
+        for (GridPosition position : center.getPositionsInCircleArea(radius)) {
+            Hexagon hexagon = map.getHexagonOrNull(position.q, position.r);
+            if (hexagon == null) {
+                continue;
+            }
+            boolean isBlocking = pathInfoSupplier.isBlockingPath(hexagon);
+            double stepCost = Double.POSITIVE_INFINITY;
+            if (!isBlocking) {
+                int costSum = 0, steps = 0;
+                for (Hexagon neighbour : hexagon.getNeighbours()) {
+                    if (!pathInfoSupplier.isBlockingPath(neighbour)) {
+                        costSum += pathInfoSupplier.getMovementCost(hexagon, neighbour);
+                        steps++;
+                    }
+                }
+                stepCost = (steps == 0) ? Double.POSITIVE_INFINITY : (double) costSum / steps;
+            }
+            aggregate.add(1, hexagon.getBackgroundColor(), 1, isBlocking ? 1 : 0, hexagon.isVisualObstacle() ? 1 : 0, stepCost);
+        }
+        aggregate.store(cell, 2 * radius + 1);
+    }
+
+    private void aggregateCells(Cell cell, HashMap<GridPosition, Cell> finerCells) {
+        Aggregate aggregate = new Aggregate();
+        GridPosition center = toFinerCenter(cell.position);
+        for (GridPosition position : center.getPositionsInCircleArea(radius)) {
+            Cell finer = finerCells.get(position);
+            if (finer != null) {
+                aggregate.add(finer.hexagonCount, finer.color, finer.coloredCount, finer.blockingRatio * finer.hexagonCount,
+                        finer.visualObstacleRatio * finer.hexagonCount, finer.cost);
+            }
+        }
+        aggregate.store(cell, 2 * radius + 1);
+    }
+
+    /**
+     * Sums of the properties of the parts of a cell, weighted by their number of Hexagons
+     */
+    private static class Aggregate {
+        int hexagonCount, coloredCount, passableCount;
+        double red, green, blue, opacity, blocking, visualObstacles, stepCost;
+
+        void add(int hexagons, Color color, int colored, double blockingHexagons, double visualObstacleHexagons, double cost) {
+            hexagonCount += hexagons;
+            if (color != null) {
+                coloredCount += colored;
+                red += color.getRed() * colored;
+                green += color.getGreen() * colored;
+                blue += color.getBlue() * colored;
+                opacity += color.getOpacity() * colored;
+            }
+            blocking += blockingHexagons;
+            visualObstacles += visualObstacleHexagons;
+            int passable = hexagons - (int) Math.round(blockingHexagons);
+            if (!Double.isInfinite(cost) && passable > 0) {
+                passableCount += passable;
+                stepCost += cost * passable;
+            }
+        }
+
+        void store(Cell cell, int stepsAcross) {
+            cell.hexagonCount = hexagonCount;
+            cell.coloredCount = coloredCount;
+            cell.color = (coloredCount == 0) ? null : new Color(red / coloredCount, green / coloredCount, blue / coloredCount, opacity / coloredCount);
+            cell.blockingRatio = (hexagonCount == 0) ? 0 : blocking / hexagonCount;
+            cell.visualObstacleRatio = (hexagonCount == 0) ? 0 : visualObstacles / hexagonCount;
+            cell.cost = (passableCount == 0) ? Double.POSITIVE_INFINITY : stepCost / passableCount * stepsAcross;
+        }
+    }
+
+    private static class Reached implements Comparable<Reached> {
+        final Cell cell;
+        final double cost;
+
+        Reached(Cell cell, double cost) {
+            this.cell = cell;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Reached other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    // --------------------- Coordinates --------------------------------------------
+
+    /**
+     * @return the position of the cell on the next coarser level that contains a position
+     */
+    GridPosition toCoarser(GridPosition position) {
+        // Solve position = a * (2R + 1, -R) + b * (R, R + 1), and then find the closest center around (a, b)
+        long q = position.q, r = position.r;
+        int a0 = (int) Math.floorDiv(q * (radius + 1) - r * radius, cellSize);
+        int b0 = (int) Math.floorDiv(q * radius + r * (2 * radius + 1), cellSize);
+        for (int a = a0 - 1; a <= a0 + 2; a++) {
+            for (int b = b0 - 1; b <= b0 + 2; b++) {
+                int centerQ = a * (2 * radius + 1) + b * radius;
+                int centerR = -a * radius + b * (radius + 1);
+                if (distance(centerQ - position.q, centerR - position.r) <= radius) {
+                    return new GridPosition(a, b);
+                }
+            }
+        }
+        throw new IllegalStateException("No cell contains " + position);
+    }
+
+    /**
+     * @return the center of a cell, in the coordinates of the next finer level
+     */
+    GridPosition toFinerCenter(GridPosition position) {
+        return new GridPosition(position.q * (2 * radius + 1) + position.r * radius, -position.q * radius + position.r * (radius + 1));
+    }
+
+    /**
+     * @return the position of the cell on a level that contains a Hexagon position
+     */
+    GridPosition toLevel(int level, GridPosition position) {
+        for (int i = 0; i < level; i++) {
+            position = toCoarser(position);
+        }
+        return position;
+    }
+
+    /**
+     * @return the position of the Hexagon at the center of a cell on a level
+     */
+    GridPosition toHexagonCenter(int level, GridPosition position) {
+        for (int i = 0; i < level; i++) {
+            position = toFinerCenter(position);
+        }
+        return position;
+    }
+
+    /**
+     * @return how much larger (in radius) a cell on level 1 is than a Hexagon, when drawn as a hexagon
+     */
+    double getCellScale() {
+        return Math.sqrt(cellSize);
+    }
+
+    /**
+     * @return the angle (in radians) that a cell on level 1 is rotated compared to a Hexagon, when drawn as a hexagon
+     */
+    double getCellRotation() {
+        // The direction to the neighbouring cell at (1, 0), compared to the direction to the neighbouring Hexagon at (1, 0)
+        double x = Math.sqrt(3) * ((2 * radius + 1) - 0.5 * radius);
+        double y = -1.5 * radius;
+        return Math.atan2(y, x);
+    }
+
+    private static int distance(int dq, int dr) {
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+    }
+
+    /**
+     * A cell on a level of the pyramid
+     */
+    public static class Cell {
+        final GridPosition position;
+        final int level;
+        int hexagonCount;
+        int coloredCount;
+        Color color;
+        double blockingRatio;
+        double visualObstacleRatio;
+        double cost;
+
+        Cell(GridPosition position, int level) {
+            this.position = position;
+            this.level = level;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the Q coordinate among the cells of the same level
+         */
+        public int getQ() {
+            return position.q;
+        }
+
+        /**
+         * @return the R coordinate among the cells of the same level
+         */
+        public int getR() {
+            return position.r;
+        }
+
+        /**
+         * @return the number of Hexagons in the cell
+         */
+        public int getHexagonCount() {
+            return hexagonCount;
+        }
+
+        /**
+         * @return the average background color of the Hexagons that have one, or null if none has
+         */
+        public Color getColor() {
+            return color;
+        }
+
+        /**
+         * @return the part (0 to 1) of the Hexagons that are blocking
+         */
+        public double getBlockingRatio() {
+            return blockingRatio;
+        }
+
+        /**
+         * @return the part (0 to 1) of the Hexagons that are visual obstacles
+         */
+        public double getVisualObstacleRatio() {
+            return visualObstacleRatio;
+        }
+
+        /**
+         * @return the estimated cost of walking across the cell, infinite if all Hexagons are blocking
+         */
+        public double getCost() {
+            return cost;
+        }
+    }
+}
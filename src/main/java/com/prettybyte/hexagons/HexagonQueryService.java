@@ -0,0 +1,175 @@
+package com.prettybyte.hexagons;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs pathfinding, field of view and range queries on a HexagonMap without blocking the calling thread. Every query
+ * returns a CompletableFuture and has a deadline.
+ * <p>
+ * A query stops (also in the middle of a pathfinding) when its future is cancelled or when the deadline has passed.
+ * The future then completes with a CancellationException or a TimeoutException. The future completes at the deadline
+ * even if the query is still waiting for a thread. If there already are
+ * maxPendingQueries queries waiting or running, new queries are not accepted, and their futures complete with a
+ * RejectedExecutionException. That way an overloaded server answers some requests quickly instead of queueing all of
+ * them.
+ * <p>
+ * Several queries can run at the same time on the same HexagonMap, but the map must not be changed while queries are
+ * running.
+ */
+public class HexagonQueryService {
+
+    private static final ScheduledThreadPoolExecutor DEADLINES = newDeadlineScheduler();
+
+    private final HexagonMap map;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final Semaphore permits;
+    private final int maxPendingQueries;
+
+    /**
+     * Creates a service that runs the queries on a fixed number of daemon threads
+     *
+     * @param threads           the number of threads
+     * @param maxPendingQueries how many queries that can wait or run at the same time
+     */
+    public HexagonQueryService(HexagonMap map, int threads, int maxPendingQueries) {
+        this(map, newDaemonThreadPool(threads), maxPendingQueries, true);
+    }
+
+    /**
+     * Creates a service that runs the queries on your Executor, e.g. Executors.newVirtualThreadPerTaskExecutor()
+     *
+     * @param maxPendingQueries how many queries that can wait or run at the same time
+     */
+    public HexagonQueryService(HexagonMap map, Executor executor, int maxPendingQueries) {
+        this(map, executor, maxPendingQueries, false);
+    }
+
+    private HexagonQueryService(HexagonMap map, Executor executor, int maxPendingQueries, boolean ownsExecutor) {
+        if (maxPendingQueries < 1) {
+            throw new IllegalArgumentException("maxPendingQueries must be at least 1");
+        }
+        this.map = map;
+        this.executor = executor;
+        this.ownExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.permits = new Semaphore(maxPendingQueries);
+        this.maxPendingQueries = maxPendingQueries;
+    }
+
+    private static ExecutorService newDaemonThreadPool(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "hexagon-query-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ScheduledThreadPoolExecutor newDeadlineScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "hexagon-query-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);        // Most queries finish before their deadline
+        return scheduler;
+    }
+
+    /**
+     * Finds the cheapest path from start to destination, see Hexagon.getPathTo(). If there is no path, the future
+     * completes with a NoPathFoundException.
+     */
+    public CompletableFuture<List<Hexagon>> getPath(Hexagon start, Hexagon destination, IPathInfoSupplier pathInfoSupplier, long timeout, TimeUnit unit) {
+        return submit(timeout, unit, control -> Calculations.getPathBetween(start, destination, pathInfoSupplier, control));
+    }
+
+    /**
+     * Finds the cheapest path from start to destination where the movement cost between neighboring hexagons is
+     * always 1, see Hexagon.getPathTo()
+     */
+    public CompletableFuture<List<Hexagon>> getPath(Hexagon start, Hexagon destination, long timeout, TimeUnit unit) {
+        return getPath(start, destination, new HexagonMap.DefaultPathInfoSupplier(), timeout, unit);
+    }
+
+    /**
+     * Finds the Hexagons that are visible from origin, see Hexagon.getVisibleHexes()
+     */
+    public CompletableFuture<List<Hexagon>> getVisibleHexes(Hexagon origin, int visibleRange, long timeout, TimeUnit unit) {
+        return submit(timeout, unit, control -> Calculations.getVisibleHexes(origin, visibleRange, map, control));
+    }
+
+    /**
+     * Finds the Hexagons that are within radius steps from center, see Hexagon.getHexagonsInRingArea()
+     */
+    public CompletableFuture<List<Hexagon>> getHexagonsInRange(Hexagon center, int radius, long timeout, TimeUnit unit) {
+        return submit(timeout, unit, control -> Calculations.getHexagonsInRingArea(center, radius, map, control));
+    }
+
+    /**
+     * @return the number of queries that are waiting or running
+     */
+    public int getPendingQueries() {
+        return maxPendingQueries - permits.availablePermits();
+    }
+
+    /**
+     * Stops the threads that were created by this service. Queries that are already accepted are still run. Does
+     * nothing if the service uses your Executor.
+     */
+    public void shutdown() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(long timeout, TimeUnit unit, Query<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!permits.tryAcquire()) {
+            future.completeExceptionally(new RejectedExecutionException("There are already " + maxPendingQueries + " pending queries"));
+            return future;
+        }
+        QueryControl control = new QueryControl(future, System.nanoTime() + unit.toNanos(timeout));
+        ScheduledFuture<?> deadline = DEADLINES.schedule(
+                () -> future.completeExceptionally(new TimeoutException("The deadline of the query has passed")), timeout, unit);
+        future.whenComplete((result, e) -> deadline.cancel(false));
+        try {
+            executor.execute(() -> run(query, control, future));
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void run(Query<T> query, QueryControl control, CompletableFuture<T> future) {
+        try {
+            control.check();                // The query may have been cancelled or timed out while it was waiting
+            future.complete(query.run(control));
+        } catch (QueryControl.DeadlineExceededException e) {
+            future.completeExceptionally(new TimeoutException(e.getMessage()));
+        } catch (CancellationException e) {
+            future.cancel(false);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private interface Query<T> {
+        T run(QueryControl control) throws Exception;
+    }
+}
@@ -0,0 +1,11 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Decides the color of a procedurally generated Hexagon. The result must only depend on the arguments, since
+ * Hexagons are colored in parallel and in no particular order. Then the same seed will always give the same map.
+ */
+public interface IHexagonColorFunction {
+    Color getColor(int q, int r, long seed);
+}
@@ -2,6 +2,11 @@ package com.prettybyte.hexagons;
 
 import javafx.scene.paint.Color;
 
+/**
+ * Decides how the Hexagons of a generated HexagonMap are created. createHexagon() is called on the thread that
+ * generates the map, row by row: every position with r = 0 from west to east, then r = 1, and so on. This lets the
+ * image be read in strips. If the center of a Hexagon is outside the image, the nearest pixel is used.
+ */
 public interface IHexagonCreator {
     void createHexagon(int q, int r, Color imagePixelColor, HexagonMap map);
 }
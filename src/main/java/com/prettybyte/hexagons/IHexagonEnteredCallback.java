@@ -0,0 +1,5 @@
+package com.prettybyte.hexagons;
+
+public interface IHexagonEnteredCallback {
+    void onEntered(Hexagon hexagon);
+}
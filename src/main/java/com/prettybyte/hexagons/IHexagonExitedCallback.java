@@ -0,0 +1,5 @@
+package com.prettybyte.hexagons;
+
+public interface IHexagonExitedCallback {
+    void onExited(Hexagon hexagon);
+}
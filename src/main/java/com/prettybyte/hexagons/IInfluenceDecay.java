@@ -0,0 +1,14 @@
+package com.prettybyte.hexagons;
+
+/**
+ * Decides how the influence of a source decreases with the distance, e.g. strength / (1 + cost). The result must only
+ * depend on the arguments, since the sources are propagated in parallel.
+ */
+public interface IInfluenceDecay {
+    /**
+     * @param strength the strength of the source
+     * @param cost     the cost of the cheapest path from the source (0 on the source itself)
+     * @return the influence of the source on a Hexagon
+     */
+    double getInfluence(double strength, int cost);
+}
@@ -4,4 +4,12 @@ public interface IPathInfoSupplier {
     boolean isBlockingPath(Hexagon hexagon);
 
     int getMovementCost(Hexagon from, Hexagon to);
+
+    /**
+     * Return true if getMovementCost() is the same for all neighbours. Then a faster pathfinding is used, that doesn't
+     * call getMovementCost() at all.
+     */
+    default boolean hasUniformMovementCost() {
+        return false;
+    }
 }
@@ -0,0 +1,37 @@
+package com.prettybyte.hexagons;
+
+import java.io.IOException;
+
+/**
+ * An image that can be read a few rows at a time. This makes it possible to generate a HexagonMap from an image
+ * that is too large to keep in memory.
+ */
+public interface IPixelSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads whole rows of pixels in ARGB format (0xAARRGGBB), row by row
+     *
+     * @param firstRow the first row to read
+     * @param rowCount the number of rows to read
+     * @param buffer   where the pixels should be written. It has room for at least rowCount * getWidth() pixels after offset.
+     * @param offset   where in the buffer the first pixel should be written
+     */
+    void readRows(int firstRow, int rowCount, int[] buffer, int offset) throws IOException;
+
+    /**
+     * Reads some whole rows of pixels in ARGB format, like readRows() but for rows that are not next to each other.
+     * Override this if the source can do it faster than one readRows() call per row.
+     *
+     * @param rows   the rows to read, in increasing order (a row may be repeated)
+     * @param buffer where the pixels should be written, in the order of rows. It has room for at least rows.length * getWidth() pixels after offset.
+     * @param offset where in the buffer the first pixel should be written
+     */
+    default void readRows(int[] rows, int[] buffer, int offset) throws IOException {
+        for (int i = 0; i < rows.length; i++) {
+            readRows(rows[i], 1, buffer, offset + i * getWidth());
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.prettybyte.hexagons;
+
+public interface IQueryListener {
+    void onQuery(QueryMetrics metrics);
+}
@@ -0,0 +1,31 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritablePixelFormat;
+
+/**
+ * Lets MapGenerator read a JavaFX Image like any other IPixelSource
+ */
+class ImagePixelSource implements IPixelSource {
+
+    private final Image image;
+
+    ImagePixelSource(Image image) {
+        this.image = image;
+    }
+
+    @Override
+    public int getWidth() {
+        return (int) image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return (int) image.getHeight();
+    }
+
+    @Override
+    public void readRows(int firstRow, int rowCount, int[] buffer, int offset) {
+        image.getPixelReader().getPixels(0, firstRow, getWidth(), rowCount, WritablePixelFormat.getIntArgbInstance(), buffer, offset, getWidth());
+    }
+}
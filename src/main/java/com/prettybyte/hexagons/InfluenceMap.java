@@ -0,0 +1,333 @@
+package com.prettybyte.hexagons;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Spreads the influence (e.g. threat or control) of many sources over a HexagonMap. The influence of a source
+ * decreases with the cost of walking from it, so it doesn't pass through blocking Hexagons, and it is not spread
+ * further than maxCost.
+ * <p>
+ * Sources are added, moved and removed, and the changes take effect when update() is called. Only the sources that
+ * have changed are propagated again, in parallel. The contributions are summed in fixed point, so the result is the
+ * same regardless of the order in which the sources are propagated and updated.
+ * <p>
+ * The Hexagons, their neighbours, movement costs and blocking are read from the HexagonMap when the InfluenceMap is
+ * created. Call refresh() when the HexagonMap or the IPathInfoSupplier has changed. A source on a Hexagon that has
+ * been removed from the HexagonMap has no influence.
+ */
+public class InfluenceMap {
+
+    private static final double FIXED_POINT_ONE = 1 << 20;
+    private static final int NO_NEIGHBOUR = -1;
+
+    private final HexagonMap map;
+    private final IPathInfoSupplier pathInfoSupplier;
+    private final IInfluenceDecay decay;
+    private final int maxCost;
+    private final ArrayList<Source> sources = new ArrayList<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();             // Of sources removed by update()
+    private final ConcurrentLinkedQueue<Scratch> scratchPool = new ConcurrentLinkedQueue<>();   // At most one per thread of update()
+
+    private Hexagon[] hexagons;
+    private HashMap<Hexagon, Integer> indices;
+    private int[] neighbours;               // 6 per Hexagon
+    private int[] movementCosts;            // The cost to move to each of the neighbours
+    private boolean[] blocking;
+    private long[] totals;
+
+    /**
+     * @param maxCost the influence is not spread to Hexagons that cost more than this to walk to
+     */
+    public InfluenceMap(HexagonMap map, IPathInfoSupplier pathInfoSupplier, IInfluenceDecay decay, int maxCost) {
+        this.map = map;
+        this.pathInfoSupplier = pathInfoSupplier;
+        this.decay = decay;
+        this.maxCost = maxCost;
+        refresh();
+    }
+
+    /**
+     * Reads the Hexagons from the HexagonMap again and propagates all sources
+     */
+    public void refresh() {
+        hexagons = map.getAllHexagons().toArray(new Hexagon[0]);
+        indices = new HashMap<>(hexagons.length * 2);
+        for (int i = 0; i < hexagons.length; i++) {
+            indices.put(hexagons[i], i);
+        }
+        neighbours = new int[hexagons.length * 6];
+        movementCosts = new int[hexagons.length * 6];
+        blocking = new boolean[hexagons.length];
+        for (int i = 0; i < hexagons.length; i++) {
+            blocking[i] = pathInfoSupplier.isBlockingPath(hexagons[i]);
+            for (int direction = 0; direction < 6; direction++) {
+                GridPosition position = hexagons[i].position.getNeighborPosition(GridPosition.getDirectionFromNumber(direction));
+                Hexagon neighbour = map.getHexagonOrNull(position.q, position.r);
+                neighbours[i * 6 + direction] = (neighbour == null) ? NO_NEIGHBOUR : indices.get(neighbour);
+                movementCosts[i * 6 + direction] = (neighbour == null) ? 0 : pathInfoSupplier.getMovementCost(hexagons[i], neighbour);
+            }
+        }
+        totals = new long[hexagons.length];
+        for (Source source : sources) {
+            if (source != null) {
+                source.index = indices.getOrDefault(source.hexagon, -1);
+                source.indices = new int[0];
+                source.amounts = new long[0];
+                source.isDirty = true;
+            }
+        }
+        update();
+    }
+
+    /**
+     * Adds a source. The influence is spread when update() is called.
+     *
+     * @return an id of the source, used to move or remove it. The id of a removed source is reused after update().
+     */
+    public int addSource(Hexagon hexagon, double strength) {
+        Integer freeId = freeIds.poll();
+        Source source = new Source((freeId == null) ? sources.size() : freeId, hexagon, index(hexagon), strength);
+        if (freeId == null) {
+            sources.add(source);
+        } else {
+            sources.set(freeId, source);
+        }
+        return source.id;
+    }
+
+    public void moveSource(int id, Hexagon hexagon) {
+        Source source = getSource(id);
+        source.index = index(hexagon);
+        source.hexagon = hexagon;
+        source.isDirty = true;
+    }
+
+    public void setStrength(int id, double strength) {
+        Source source = getSource(id);
+        source.strength = strength;
+        source.isDirty = true;
+    }
+
+    public void removeSource(int id) {
+        Source source = getSource(id);
+        source.isRemoved = true;
+        source.isDirty = true;
+    }
+
+    /**
+     * Spreads the influence of the sources that have been added, moved, changed or removed since the last update
+     */
+    public void update() {
+        ArrayList<Source> dirty = new ArrayList<>();
+        for (Source source : sources) {
+            if (source != null && source.isDirty) {
+                dirty.add(source);
+            }
+        }
+        // Every source is propagated on its own, so they can run in parallel. Applying them is cheap and sequential.
+        dirty.parallelStream().forEach(source -> propagate(source));
+        for (Source source : dirty) {
+            for (int i = 0; i < source.indices.length; i++) {
+                totals[source.indices[i]] -= source.amounts[i];
+            }
+            source.indices = source.newIndices;
+            source.amounts = source.newAmounts;
+            source.newIndices = null;
+            source.newAmounts = null;
+            for (int i = 0; i < source.indices.length; i++) {
+                totals[source.indices[i]] += source.amounts[i];
+            }
+            source.isDirty = false;
+            if (source.isRemoved) {
+                sources.set(source.id, null);
+                freeIds.add(source.id);
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the influence of all sources on the Hexagon, 0 if the Hexagon is not known to this InfluenceMap
+     */
+    public float getInfluence(Hexagon hexagon) {
+        Integer index = indices.get(hexagon);
+        return (index == null) ? 0 : (float) (totals[index] / FIXED_POINT_ONE);
+    }
+
+    /**
+     * @return the Hexagons, in the same order as getInfluences()
+     */
+    public List<Hexagon> getHexagons() {
+        return Collections.unmodifiableList(Arrays.asList(hexagons));
+    }
+
+    /**
+     * @return the influence on every Hexagon, in the same order as getHexagons()
+     */
+    public float[] getInfluences() {
+        float[] result = new float[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            result[i] = (float) (totals[i] / FIXED_POINT_ONE);
+        }
+        return result;
+    }
+
+    private int index(Hexagon hexagon) {
+        Integer index = indices.get(hexagon);
+        if (index == null) {
+            throw new IllegalArgumentException("The Hexagon " + hexagon.position + " is not in the InfluenceMap. Has refresh() been called?");
+        }
+        return index;
+    }
+
+    private Source getSource(int id) {
+        Source source = (id >= 0 && id < sources.size()) ? sources.get(id) : null;
+        if (source == null || source.isRemoved) {
+            throw new IllegalArgumentException("There is no source with id " + id);
+        }
+        return source;
+    }
+
+    /**
+     * Dijkstra's algorithm from the source, using arrays that are borrowed from the pool of this InfluenceMap (so they
+     * are released with it, and not kept alive by the threads)
+     */
+    private void propagate(Source source) {
+        if (source.isRemoved || source.index < 0) {
+            source.newIndices = new int[0];
+            source.newAmounts = new long[0];
+            return;
+        }
+        Scratch s = scratchPool.poll();
+        if (s == null) {
+            s = new Scratch();
+        }
+        try {
+            propagate(source, s);
+        } finally {
+            scratchPool.add(s);
+        }
+    }
+
+    private void propagate(Source source, Scratch s) {
+        s.prepare(hexagons.length);
+        int reachedCount = 0;
+        s.reach(source.index, 0);
+        while (s.heapSize > 0) {
+            long top = s.pop();
+            int cost = (int) (top >>> 32);
+            int index = (int) top;
+            if (s.settledStamp[index] == s.stamp) {
+                continue;
+            }
+            s.settledStamp[index] = s.stamp;
+            s.reached[reachedCount++] = index;
+            for (int direction = 0; direction < 6; direction++) {
+                int neighbour = neighbours[index * 6 + direction];
+                if (neighbour == NO_NEIGHBOUR || blocking[neighbour] || s.settledStamp[neighbour] == s.stamp) {
+                    continue;
+                }
+                int neighbourCost = cost + movementCosts[index * 6 + direction];
+                if (neighbourCost <= maxCost && (s.costStamp[neighbour] != s.stamp || neighbourCost < s.costs[neighbour])) {
+                    s.reach(neighbour, neighbourCost);
+                }
+            }
+        }
+        int[] newIndices = new int[reachedCount];
+        long[] newAmounts = new long[reachedCount];
+        for (int i = 0; i < reachedCount; i++) {
+            int index = s.reached[i];
+            newIndices[i] = index;
+            newAmounts[i] = Math.round(decay.getInfluence(source.strength, s.costs[index]) * FIXED_POINT_ONE);
+        }
+        source.newIndices = newIndices;
+        source.newAmounts = newAmounts;
+    }
+
+    private static class Source {
+        final int id;
+        Hexagon hexagon;
+        int index;                      // -1 if the Hexagon has been removed from the map
+        double strength;
+        boolean isDirty = true;
+        boolean isRemoved;
+        int[] indices = new int[0];     // The Hexagons that the source contributes to, and how much (in fixed point)
+        long[] amounts = new long[0];
+        int[] newIndices;
+        long[] newAmounts;
+
+        Source(int id, Hexagon hexagon, int index, double strength) {
+            this.id = id;
+            this.hexagon = hexagon;
+            this.index = index;
+            this.strength = strength;
+        }
+    }
+
+    /**
+     * The working memory of a propagation. Instead of clearing the arrays, a new stamp is used for every propagation.
+     */
+    private static class Scratch {
+        int stamp;
+        int[] costs = new int[0];
+        int[] costStamp = new int[0];
+        int[] settledStamp = new int[0];
+        int[] reached = new int[0];
+        long[] heap = new long[16];     // (cost << 32 | index), a binary min-heap
+        int heapSize;
+
+        void prepare(int size) {
+            if (costs.length != size) {
+                costs = new int[size];
+                costStamp = new int[size];
+                settledStamp = new int[size];
+                reached = new int[size];
+                stamp = 0;
+            }
+            stamp++;
+            heapSize = 0;
+        }
+
+        void reach(int index, int cost) {
+            costs[index] = cost;
+            costStamp[index] = stamp;
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+            long value = ((long) cost << 32) | index;
+            int i = heapSize++;
+            while (i > 0 && heap[(i - 1) / 2] > value) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.prettybyte.hexagons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for one phase of generating a batch of map rows from an image: "read" (reading the
+ * pixels), "sample" (finding the color of every Hexagon) or "create" (calling the IHexagonCreator).
+ */
+@Name("com.prettybyte.hexagons.MapGeneration")
+@Label("Map Generation")
+@Category("Hexagons")
+@Description("One phase of generating a batch of map rows")
+class MapGenerationEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("First Row")
+    int firstRow;
+
+    @Label("Row Count")
+    int rowCount;
+}
@@ -1,29 +1,37 @@
 package com.prettybyte.hexagons;
 
-import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
 import javafx.scene.paint.Color;
 
+import java.io.IOException;
 import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 /**
- * This class creates a map of Hexagons from an image file.
+ * This class creates a map of Hexagons from an image file. The image is read in horizontal strips, and the
+ * Hexagons of a strip are created before the next strip is read, so that only a small part of the image has to be
+ * in memory at the same time.
  */
 class MapGenerator {
 
+    static final int ROWS_PER_BATCH = 64;          // Also used by ProceduralGenerator
+    private static final long MAX_BYTES_PER_STRIP = 1 << 27;       // The pixels of a strip, and its SummedAreaTable
+
     private final HexagonMap map;
-    private final Image image;
+    private final IPixelSource source;
     private final int mapWidth;
+    private final HexagonMap.ImageSampling sampling;
     private Double verticalRelation;
     private Double horizontalRelation;
 
     /**
      * The image proportions are maintained, therefore only the desired width is specified.
      */
-    MapGenerator(HexagonMap map, Image image, int mapWidthInHexes) {
+    MapGenerator(HexagonMap map, IPixelSource source, int mapWidthInHexes, HexagonMap.ImageSampling sampling) {
         this.map = map;
-        this.image = image;
+        this.source = source;
         this.mapWidth = mapWidthInHexes;
+        this.sampling = sampling;
     }
 
     Optional<Double> getHorizontalRelation() {
@@ -48,10 +56,9 @@ class MapGenerator {
      * }
      * }
      */
-    public void generate(IHexagonCreator creator) {
-        PixelReader pr = image.getPixelReader();
-        double imageWidth = image.getWidth();
-        double imageHeight = image.getHeight();
+    public void generate(IHexagonCreator creator) throws IOException {
+        int imageWidth = source.getWidth();
+        int imageHeight = source.getHeight();
         double hexagonMapWidthInPixels = map.getGraphicsHorizontalDistanceBetweenHexagons() * mapWidth;
         horizontalRelation = imageWidth / hexagonMapWidthInPixels;
         double estimatedHexagonMapHeightInPixels = imageHeight / horizontalRelation;
@@ -59,17 +66,131 @@ class MapGenerator {
         int mapHeight = (int) (estimatedHexagonMapHeightInPixels / map.getGraphicsverticalDistanceBetweenHexagons());
         verticalRelation = imageHeight / ((map.getGraphicsverticalDistanceBetweenHexagons() * mapHeight) + map.getGraphicsHexagonHeight() / 2); // Not really sure about the last part but it seems to work. And should I make the corresponding correction on the horizontalRelation ?
 
-        for (int x = 0; x < mapWidth; x++) {
-            for (int y = 0; y < mapHeight; y++) {
-                int axialQ = x - (y - (y & 1)) / 2;
-                int axialR = y;
-                Hexagon h = new Hexagon(axialQ, axialR);
-                h.setMap(map);
-                int xOnImage = (int) ((h.getGraphicsXoffset() - map.graphicsXpadding) * horizontalRelation);
-                int yOnImage = (int) ((h.getGraphicsYoffset() - map.graphicsYpadding) * verticalRelation);
-                Color pixelColor = pr.getColor(xOnImage, yOnImage);
-                creator.createHexagon(axialQ, axialR, pixelColor, map);
+        // The pixels of a batch of rows are read in parallel, then the Hexagons are created in order on this thread
+        int rowsPerBatch = getRowsPerBatch(imageWidth);
+        int[] colors = new int[mapWidth * rowsPerBatch];
+        for (int firstRow = 0; firstRow < mapHeight; firstRow += rowsPerBatch) {
+            int batchStart = firstRow;
+            int batchEnd = Math.min(mapHeight, firstRow + rowsPerBatch);
+            if (sampling == HexagonMap.ImageSampling.AREA_AVERAGE) {
+                averageBatch(batchStart, batchEnd, imageWidth, imageHeight, colors);
+            } else {
+                readBatch(batchStart, batchEnd, imageWidth, imageHeight, colors);
             }
+            createHexagons(map, mapWidth, batchStart, batchEnd, i -> Colors.fromArgb(colors[i]), creator);
+        }
+    }
+
+    /**
+     * Calls the creator for every Hexagon on a batch of rows (in offset coordinates), in the order described in
+     * IHexagonCreator. Also used by ProceduralGenerator.
+     *
+     * @param colors the color of a Hexagon, from its index in the batch (row by row)
+     */
+    static void createHexagons(HexagonMap map, int mapWidth, int batchStart, int batchEnd, IntFunction<Color> colors, IHexagonCreator creator) {
+        Object event = FlightRecorder.beginMapGeneration();
+        for (int y = batchStart; y < batchEnd; y++) {
+            for (int x = 0; x < mapWidth; x++) {
+                creator.createHexagon(toAxialQ(x, y), y, colors.apply((y - batchStart) * mapWidth + x), map);
+            }
+        }
+        FlightRecorder.commitMapGeneration(event, "create", batchStart, batchEnd - batchStart);
+    }
+
+    /**
+     * @return the axial Q of the Hexagon at column x on row y (in offset coordinates). The axial R is y.
+     */
+    static int toAxialQ(int x, int y) {
+        return x - (y - (y & 1)) / 2;
+    }
+
+    /**
+     * @return how many map rows that can be handled at once without using more than MAX_BYTES_PER_STRIP bytes
+     */
+    private int getRowsPerBatch(int imageWidth) {
+        double imageRowsPerMapRow = 1;
+        int bytesPerPixel = 4;
+        if (sampling == HexagonMap.ImageSampling.AREA_AVERAGE) {
+            imageRowsPerMapRow = map.getGraphicsverticalDistanceBetweenHexagons() * verticalRelation + 2;
+            bytesPerPixel += SummedAreaTable.BYTES_PER_PIXEL;
+        }
+        long bytesPerMapRow = (long) Math.ceil(imageRowsPerMapRow * imageWidth) * bytesPerPixel;
+        return (int) Math.max(1, Math.min(ROWS_PER_BATCH, MAX_BYTES_PER_STRIP / bytesPerMapRow));
+    }
+
+    /**
+     * Reads the image row under the centers of each map row (all of them in one call), and picks the pixel under the
+     * center of every Hexagon
+     */
+    private void readBatch(int batchStart, int batchEnd, int imageWidth, int imageHeight, int[] colors) throws IOException {
+        Object readEvent = FlightRecorder.beginMapGeneration();
+        int[] imageRows = new int[batchEnd - batchStart];
+        for (int y = batchStart; y < batchEnd; y++) {
+            imageRows[y - batchStart] = Math.min(imageHeight - 1, (int) (Hexagon.calculateGraphicsYoffset(y, map.hexagonSize) * verticalRelation));
+        }
+        int[] strip = new int[imageRows.length * imageWidth];
+        source.readRows(imageRows, strip, 0);
+        FlightRecorder.commitMapGeneration(readEvent, "read", batchStart, batchEnd - batchStart);
+
+        Object sampleEvent = FlightRecorder.beginMapGeneration();
+        IntStream.range(batchStart, batchEnd).parallel().forEach(y -> readRow(strip, (y - batchStart) * imageWidth, imageWidth, y, colors, (y - batchStart) * mapWidth));
+        FlightRecorder.commitMapGeneration(sampleEvent, "sample", batchStart, batchEnd - batchStart);
+    }
+
+    /**
+     * Finds the color under the center of every Hexagon on a row (in offset coordinates) of the map. The centers are
+     * calculated without creating any Hexagons.
+     */
+    private void readRow(int[] strip, int imageRowOffset, int imageWidth, int y, int[] colors, int offset) {
+        int axialR = y;
+        for (int x = 0; x < mapWidth; x++) {
+            int axialQ = toAxialQ(x, y);
+            int xOnImage = Math.min(imageWidth - 1, (int) (Hexagon.calculateGraphicsXoffset(axialQ, axialR, map.hexagonSize) * horizontalRelation));
+            colors[offset + x] = strip[imageRowOffset + xOnImage];
+        }
+    }
+
+    /**
+     * Reads all image rows covered by the map rows, and builds a summed-area table for them
+     */
+    private void averageBatch(int batchStart, int batchEnd, int imageWidth, int imageHeight, int[] colors) throws IOException {
+        double halfHeight = map.getGraphicsverticalDistanceBetweenHexagons() / 2;
+        int firstImageRow = (int) Math.round((Hexagon.calculateGraphicsYoffset(batchStart, map.hexagonSize) - halfHeight) * verticalRelation);
+        int endImageRow = (int) Math.round((Hexagon.calculateGraphicsYoffset(batchEnd - 1, map.hexagonSize) + halfHeight) * verticalRelation);
+        firstImageRow = Math.max(0, Math.min(imageHeight - 1, firstImageRow));
+        endImageRow = Math.max(firstImageRow + 1, Math.min(imageHeight, endImageRow));
+
+        Object readEvent = FlightRecorder.beginMapGeneration();
+        int stripHeight = endImageRow - firstImageRow;
+        int[] strip = new int[stripHeight * imageWidth];
+        source.readRows(firstImageRow, stripHeight, strip, 0);
+        FlightRecorder.commitMapGeneration(readEvent, "read", batchStart, batchEnd - batchStart);
+
+        Object sampleEvent = FlightRecorder.beginMapGeneration();
+        SummedAreaTable summedAreaTable = new SummedAreaTable(strip, imageWidth, stripHeight);
+        int stripTop = firstImageRow;
+        IntStream.range(batchStart, batchEnd).parallel().forEach(y -> averageRow(summedAreaTable, stripTop, y, colors, (y - batchStart) * mapWidth));
+        FlightRecorder.commitMapGeneration(sampleEvent, "sample", batchStart, batchEnd - batchStart);
+    }
+
+    /**
+     * Finds the average color of the image area covered by every Hexagon on a row (in offset coordinates) of the
+     * map. The area is approximated with a rectangle that has the same size as the Hexagon, which means that the
+     * rectangles of all Hexagons cover the image without overlapping.
+     */
+    private void averageRow(SummedAreaTable summedAreaTable, int stripTop, int y, int[] colors, int offset) {
+        double halfWidth = map.getGraphicsHorizontalDistanceBetweenHexagons() / 2;
+        double halfHeight = map.getGraphicsverticalDistanceBetweenHexagons() / 2;
+        int axialR = y;
+        double centerY = Hexagon.calculateGraphicsYoffset(axialR, map.hexagonSize);
+        int y0 = (int) Math.round((centerY - halfHeight) * verticalRelation) - stripTop;
+        int y1 = (int) Math.round((centerY + halfHeight) * verticalRelation) - stripTop;
+        for (int x = 0; x < mapWidth; x++) {
+            int axialQ = toAxialQ(x, y);
+            double centerX = Hexagon.calculateGraphicsXoffset(axialQ, axialR, map.hexagonSize);
+            int x0 = (int) Math.round((centerX - halfWidth) * horizontalRelation);
+            int x1 = (int) Math.round((centerX + halfWidth) * horizontalRelation);
+            colors[offset + x] = summedAreaTable.getAverage(x0, y0, x1, y1);
         }
     }
 }
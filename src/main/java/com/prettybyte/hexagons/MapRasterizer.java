@@ -0,0 +1,195 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+/**
+ * Renders a HexagonMap into images without JavaFX, e.g. to create minimaps or previews on a server. The image is
+ * divided into square tiles which are rendered in parallel.
+ */
+public class MapRasterizer {
+
+    private final HexagonMap map;
+    private final double scale;
+    private final int tileSize;
+    private final double left, top;       // The map area to render, in the same coordinates as getGraphicsXoffset()
+    private final int width, height;      // The size of the whole image
+
+    /**
+     * @param map      the HexagonMap to render. It should not be changed while rendering.
+     * @param scale    1.0 renders the Hexagons with the same size as on the screen
+     * @param tileSize the width and height of each tile in pixels
+     */
+    public MapRasterizer(HexagonMap map, double scale, int tileSize) {
+        this(map, scale, tileSize, findBounds(map));
+    }
+
+    private MapRasterizer(HexagonMap map, double scale, int tileSize, double[] bounds) {
+        if (scale <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Scale and tile size must be positive");
+        }
+        this.map = map;
+        this.scale = scale;
+        this.tileSize = tileSize;
+        this.left = bounds[0];
+        this.top = bounds[1];
+        this.width = Math.max(1, (int) Math.ceil((bounds[2] - bounds[0]) * scale));
+        this.height = Math.max(1, (int) Math.ceil((bounds[3] - bounds[1]) * scale));
+    }
+
+    /**
+     * @return {left, top, right, bottom} of all Hexagons
+     */
+    private static double[] findBounds(HexagonMap map) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Hexagon hexagon : map.getAllHexagons()) {
+            minX = Math.min(minX, hexagon.getGraphicsXoffset());
+            minY = Math.min(minY, hexagon.getGraphicsYoffset());
+            maxX = Math.max(maxX, hexagon.getGraphicsXoffset());
+            maxY = Math.max(maxY, hexagon.getGraphicsYoffset());
+        }
+        if (minX > maxX) {
+            return new double[]{0, 0, 0, 0};
+        }
+        return new double[]{minX - map.hexagonSize, minY - map.hexagonSize, maxX + map.hexagonSize, maxY + map.hexagonSize};
+    }
+
+    /**
+     * @return the width of the whole image in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the whole image in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumberOfTileColumns() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    public int getNumberOfTileRows() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Renders one tile. Tiles at the right and bottom edges are smaller if the image size is not a multiple of the
+     * tile size.
+     */
+    public BufferedImage renderTile(int column, int row) {
+        int tileX = column * tileSize;
+        int tileY = row * tileSize;
+        if (column < 0 || row < 0 || tileX >= width || tileY >= height) {
+            throw new IllegalArgumentException("There is no tile at column " + column + " row " + row);
+        }
+        int tileWidth = Math.min(tileSize, width - tileX);
+        int tileHeight = Math.min(tileSize, height - tileY);
+        BufferedImage image = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        double areaX = left + tileX / scale;
+        double areaY = top + tileY / scale;
+        double radius = map.hexagonSize * scale + 0.5;       // Slightly larger, so that there are no gaps between the Hexagons
+        Path2D.Double shape = new Path2D.Double();
+        for (Hexagon hexagon : map.getHexagonsInArea(areaX, areaY, tileWidth / scale, tileHeight / scale)) {
+            Color color = getColor(hexagon);
+            if (color == null) {
+                continue;
+            }
+            double[] points = Hexagon.placeUnitHexagon((hexagon.getGraphicsXoffset() - areaX) * scale, (hexagon.getGraphicsYoffset() - areaY) * scale, radius);
+            shape.reset();
+            shape.moveTo(points[0], points[1]);
+            for (int i = 2; i < points.length; i += 2) {
+                shape.lineTo(points[i], points[i + 1]);
+            }
+            shape.closePath();
+            g.setColor(new java.awt.Color(Colors.toArgb(color), true));
+            g.fill(shape);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static Color getColor(Hexagon hexagon) {
+        Color color = hexagon.getBackgroundColor();
+        if (color == null) {
+            Paint fill = hexagon.getFill();
+            if (fill instanceof Color) {
+                color = (Color) fill;
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Renders the whole map into one image. The tiles are rendered in parallel.
+     */
+    public BufferedImage render() {
+        int columns = getNumberOfTileColumns();
+        BufferedImage[] tiles = new BufferedImage[columns * getNumberOfTileRows()];
+        IntStream.range(0, tiles.length).parallel().forEach(i -> tiles[i] = renderTile(i % columns, i / columns));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < tiles.length; i++) {
+            g.drawImage(tiles[i], (i % columns) * tileSize, (i / columns) * tileSize, null);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Writes all tiles as png files to directory/level/column_row.png. Level 0 has the scale of this MapRasterizer,
+     * and every following level has half the scale of the previous one, down to the level where the whole map fits
+     * in one tile. Only a few tiles are kept in memory at the same time, so this works for very large maps.
+     *
+     * @return the number of levels
+     */
+    public int writeTilePyramid(Path directory) throws IOException {
+        double[] bounds = {left, top, left + width / scale, top + height / scale};
+        int level = 0;
+        MapRasterizer rasterizer = this;
+        while (true) {
+            rasterizer.writeTiles(directory.resolve(Integer.toString(level)));
+            level++;
+            if (rasterizer.getNumberOfTileColumns() == 1 && rasterizer.getNumberOfTileRows() == 1) {
+                return level;
+            }
+            rasterizer = new MapRasterizer(map, rasterizer.scale / 2, tileSize, bounds);
+        }
+    }
+
+    private void writeTiles(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        int columns = getNumberOfTileColumns();
+        try {
+            IntStream.range(0, columns * getNumberOfTileRows()).parallel().forEach(i -> {
+                int column = i % columns;
+                int row = i / columns;
+                try {
+                    ImageIO.write(renderTile(column, row), "png", directory.resolve(column + "_" + row + ".png").toFile());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
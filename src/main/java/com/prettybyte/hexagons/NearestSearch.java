@@ -0,0 +1,125 @@
+package com.prettybyte.hexagons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Finds the Hexagons closest to an origin that match a condition. The rings around the origin are walked one
+ * position at a time without creating any lists, and the search stops as soon as enough Hexagons have been found.
+ */
+class NearestSearch {
+
+    private static final int[][] DIRECTIONS = {{0, -1}, {+1, -1}, {+1, 0}, {0, +1}, {-1, +1}, {-1, 0}};    // Same order as HexagonMap.Direction
+
+    /**
+     * @return at most k Hexagons within maxRadius steps from origin that match the predicate, the closest first
+     */
+    static ArrayList<Hexagon> findNearest(HexagonMap map, Hexagon origin, Predicate<Hexagon> predicate, int maxRadius, int k) {
+        ArrayList<Hexagon> result = new ArrayList<>();
+        int hexagonsInMap = map.getAllHexagons().size();
+        int hexagonsSeen = 0;
+        int lastRadius = (int) Math.min(maxRadius, map.getMaxDistanceFrom(origin.position));      // There is nothing further out
+        for (int radius = 0; radius <= lastRadius && result.size() < k && hexagonsSeen < hexagonsInMap; radius++) {
+            // The ring starts radius steps to the southwest and walks once around the origin, like getPositionsOnCircleEdge()
+            int q = origin.getQ() - radius;
+            int r = origin.getR() + radius;
+            int steps = Math.max(1, 6 * radius);
+            for (int step = 0; step < steps; step++) {
+                Hexagon hexagon = map.getHexagonOrNull(q, r);
+                if (hexagon != null) {
+                    hexagonsSeen++;
+                    if (predicate.test(hexagon)) {
+                        result.add(hexagon);
+                        if (result.size() == k) {
+                            break;
+                        }
+                    }
+                }
+                if (radius > 0) {
+                    int[] direction = DIRECTIONS[step / radius];
+                    q += direction[0];
+                    r += direction[1];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Like findNearest(), but when there are few candidates it is faster to measure the distance to all of them than
+     * to walk the rings.
+     */
+    static ArrayList<Hexagon> findNearest(HexagonMap map, Hexagon origin, Collection<Hexagon> candidates, int maxRadius, int k) {
+        long positionsInCircle = 3L * maxRadius * (maxRadius + 1L) + 1;
+        if (candidates.size() * 8L > positionsInCircle) {
+            return findNearest(map, origin, candidates::contains, maxRadius, k);
+        }
+        ArrayList<Hexagon> result = new ArrayList<>();
+        for (Hexagon candidate : candidates) {
+            if (GridPosition.getDistance(origin.position, candidate.position) <= maxRadius) {
+                result.add(candidate);
+            }
+        }
+        result.sort(Comparator.comparingInt(h -> GridPosition.getDistance(origin.position, h.position)));
+        return new ArrayList<>(result.subList(0, Math.min(k, result.size())));
+    }
+
+    /**
+     * Dijkstra's algorithm from origin, which stops when k matching Hexagons have been reached. A blocking Hexagon can
+     * be found (like the destination of getPathTo()), but the search doesn't continue through it.
+     *
+     * @return at most k Hexagons that match the predicate and can be reached for at most maxCost, the cheapest first
+     */
+    static ArrayList<Hexagon> findNearestByPath(Hexagon origin, Predicate<Hexagon> predicate, int maxCost, IPathInfoSupplier pathInfoSupplier, int k) {
+        ArrayList<Hexagon> result = new ArrayList<>();
+        HashMap<Hexagon, Integer> costs = new HashMap<>();
+        HashSet<Hexagon> settled = new HashSet<>();
+        PriorityQueue<Reached> openSet = new PriorityQueue<>();
+        costs.put(origin, 0);
+        openSet.add(new Reached(origin, 0));
+        while (!openSet.isEmpty() && result.size() < k) {
+            Reached current = openSet.poll();
+            if (!settled.add(current.hexagon)) {
+                continue;
+            }
+            if (predicate.test(current.hexagon)) {
+                result.add(current.hexagon);
+            }
+            if (current.hexagon != origin && pathInfoSupplier.isBlockingPath(current.hexagon)) {
+                continue;
+            }
+            for (Hexagon neighbour : current.hexagon.getNeighbours()) {
+                if (settled.contains(neighbour)) {
+                    continue;
+                }
+                int cost = current.cost + pathInfoSupplier.getMovementCost(current.hexagon, neighbour);
+                Integer previous = costs.get(neighbour);
+                if (cost <= maxCost && (previous == null || cost < previous)) {
+                    costs.put(neighbour, cost);
+                    openSet.add(new Reached(neighbour, cost));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class Reached implements Comparable<Reached> {
+        final Hexagon hexagon;
+        final int cost;
+
+        Reached(Hexagon hexagon, int cost) {
+            this.hexagon = hexagon;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Reached other) {
+            return Integer.compare(cost, other.cost);
+        }
+    }
+}
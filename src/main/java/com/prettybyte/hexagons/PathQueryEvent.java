@@ -0,0 +1,37 @@
+package com.prettybyte.hexagons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for every pathfinding (getPathTo)
+ */
+@Name("com.prettybyte.hexagons.PathQuery")
+@Label("Path Query")
+@Category("Hexagons")
+@Description("Finding a path between two Hexagons")
+class PathQueryEvent extends jdk.jfr.Event {
+    @Label("Start Q")
+    int startQ;
+
+    @Label("Start R")
+    int startR;
+
+    @Label("Destination Q")
+    int destinationQ;
+
+    @Label("Destination R")
+    int destinationR;
+
+    @Label("Nodes Expanded")
+    int nodesExpanded;
+
+    @Label("Peak Open Set Size")
+    int peakOpenSetSize;
+
+    @Label("Path Length")
+    @Description("The number of Hexagons in the path, 0 if no path was found")
+    int pathLength;
+}
@@ -0,0 +1,80 @@
+package com.prettybyte.hexagons;
+
+import javafx.scene.paint.Color;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class creates a map of Hexagons from a seed and a function, e.g. noise. The colors are calculated in
+ * parallel, but the Hexagons are always created in the same order, so the result does not depend on the number of
+ * threads.
+ */
+class ProceduralGenerator {
+
+    private static final int ROWS_PER_TASK = 4;
+
+    private final HexagonMap map;
+    private final int mapWidth;
+    private final int mapHeight;
+    private final long seed;
+    private final IHexagonColorFunction colorFunction;
+
+    /**
+     * The map is a rectangle of Hexagons, the same shape as a map generated from an Image
+     */
+    ProceduralGenerator(HexagonMap map, int mapWidthInHexes, int mapHeightInHexes, long seed, IHexagonColorFunction colorFunction) {
+        this.map = map;
+        this.mapWidth = mapWidthInHexes;
+        this.mapHeight = mapHeightInHexes;
+        this.seed = seed;
+        this.colorFunction = colorFunction;
+    }
+
+    void generate(IHexagonCreator creator) {
+        generate(creator, ForkJoinPool.commonPool());
+    }
+
+    void generate(IHexagonCreator creator, ForkJoinPool pool) {
+        Color[] colors = new Color[mapWidth * MapGenerator.ROWS_PER_BATCH];
+        for (int firstRow = 0; firstRow < mapHeight; firstRow += MapGenerator.ROWS_PER_BATCH) {
+            int batchStart = firstRow;
+            int batchEnd = Math.min(mapHeight, firstRow + MapGenerator.ROWS_PER_BATCH);
+            Object sampleEvent = FlightRecorder.beginMapGeneration();
+            pool.invoke(new RowTask(batchStart, batchEnd, batchStart, colors));
+            FlightRecorder.commitMapGeneration(sampleEvent, "sample", batchStart, batchEnd - batchStart);
+            MapGenerator.createHexagons(map, mapWidth, batchStart, batchEnd, i -> colors[i], creator);
+        }
+    }
+
+    /**
+     * Calculates the colors of a range of rows (in offset coordinates), splitting the range until it is small
+     */
+    private class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int startRow, endRow, batchStart;
+        private final Color[] colors;
+
+        RowTask(int startRow, int endRow, int batchStart, Color[] colors) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.batchStart = batchStart;
+            this.colors = colors;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow > ROWS_PER_TASK) {
+                int middle = (startRow + endRow) >>> 1;
+                invokeAll(new RowTask(startRow, middle, batchStart, colors), new RowTask(middle, endRow, batchStart, colors));
+                return;
+            }
+            for (int y = startRow; y < endRow; y++) {
+                for (int x = 0; x < mapWidth; x++) {
+                    colors[(y - batchStart) * mapWidth + x] = colorFunction.getColor(MapGenerator.toAxialQ(x, y), y, seed);
+                }
+            }
+        }
+    }
+}
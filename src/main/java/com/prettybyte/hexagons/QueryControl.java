@@ -0,0 +1,49 @@
+package com.prettybyte.hexagons;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * Lets a running query find out that it should stop, because it has been cancelled or its deadline has passed. The
+ * queries call check() now and then, which throws an exception that ends the query.
+ */
+class QueryControl {
+
+    static final QueryControl NONE = new QueryControl(null, 0, false);
+
+    private final Future<?> future;
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    /**
+     * @param future   the query stops when this is cancelled
+     * @param deadline the query stops when System.nanoTime() passes this
+     */
+    QueryControl(Future<?> future, long deadline) {
+        this(future, deadline, true);
+    }
+
+    private QueryControl(Future<?> future, long deadline, boolean hasDeadline) {
+        this.future = future;
+        this.deadline = deadline;
+        this.hasDeadline = hasDeadline;
+    }
+
+    void check() {
+        if (future != null && future.isDone()) {
+            // Cancelled, or completed by someone else (e.g. with a TimeoutException), so the result is not needed
+            throw new CancellationException(future.isCancelled() ? "The query was cancelled" : "The query has already been completed");
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    static class DeadlineExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException() {
+            super("The deadline of the query has passed", null, false, false);
+        }
+    }
+}
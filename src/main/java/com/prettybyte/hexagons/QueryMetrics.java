@@ -0,0 +1,68 @@
+package com.prettybyte.hexagons;
+
+/**
+ * Describes how much work one query (e.g. a pathfinding) required. See HexagonMap.setQueryListener()
+ */
+public class QueryMetrics {
+
+    public enum Type {PATH, FIELD_OF_VIEW, RING_EDGE, RING_AREA, LINE}
+
+    private final Type type;
+    private final int nodesExpanded;
+    private final int peakOpenSetSize;
+    private final int supplierCalls;
+    private final long elapsedNanos;
+    private final int resultSize;
+
+    QueryMetrics(Type type, int nodesExpanded, int peakOpenSetSize, int supplierCalls, long elapsedNanos, int resultSize) {
+        this.type = type;
+        this.nodesExpanded = nodesExpanded;
+        this.peakOpenSetSize = peakOpenSetSize;
+        this.supplierCalls = supplierCalls;
+        this.elapsedNanos = elapsedNanos;
+        this.resultSize = resultSize;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of Hexagons (or positions) that were examined. For pathfinding, the number of Hexagons
+     * taken from the open set.
+     */
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    /**
+     * @return the largest size of the open set during pathfinding, 0 for other queries
+     */
+    public int getPeakOpenSetSize() {
+        return peakOpenSetSize;
+    }
+
+    /**
+     * @return the number of calls to the IPathInfoSupplier, 0 for queries that do not use one
+     */
+    public int getSupplierCalls() {
+        return supplierCalls;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the number of Hexagons in the result, 0 if no path was found
+     */
+    public int getResultSize() {
+        return resultSize;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics " + type + " nodesExpanded:" + nodesExpanded + " peakOpenSetSize:" + peakOpenSetSize
+                + " supplierCalls:" + supplierCalls + " elapsedNanos:" + elapsedNanos + " resultSize:" + resultSize;
+    }
+}
@@ -0,0 +1,93 @@
+package com.prettybyte.hexagons;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An IQueryListener that aggregates the metrics of all queries into histograms, e.g. to be exported to a
+ * monitoring system. Bucket i of a histogram counts the values from 2^i to 2^(i+1) - 1 (bucket 0 also counts 0).
+ * It can be used from several threads at the same time.
+ */
+public class QueryStatistics implements IQueryListener {
+
+    public static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(QueryMetrics.Type.values().length);
+    private final AtomicLongArray elapsedNanos = new AtomicLongArray(QueryMetrics.Type.values().length * BUCKETS);
+    private final AtomicLongArray nodesExpanded = new AtomicLongArray(QueryMetrics.Type.values().length * BUCKETS);
+
+    @Override
+    public void onQuery(QueryMetrics metrics) {
+        int type = metrics.getType().ordinal();
+        counts.incrementAndGet(type);
+        elapsedNanos.incrementAndGet(type * BUCKETS + getBucket(metrics.getElapsedNanos()));
+        nodesExpanded.incrementAndGet(type * BUCKETS + getBucket(metrics.getNodesExpanded()));
+    }
+
+    static int getBucket(long value) {
+        return value <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @return the number of queries of this type
+     */
+    public long getCount(QueryMetrics.Type type) {
+        return counts.get(type.ordinal());
+    }
+
+    public long[] getElapsedNanosHistogram(QueryMetrics.Type type) {
+        return getHistogram(elapsedNanos, type);
+    }
+
+    public long[] getNodesExpandedHistogram(QueryMetrics.Type type) {
+        return getHistogram(nodesExpanded, type);
+    }
+
+    private static long[] getHistogram(AtomicLongArray histograms, QueryMetrics.Type type) {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = histograms.get(type.ordinal() * BUCKETS + i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the lowest value of the bucket that contains the specified percentile (0 - 100) of the elapsed time
+     */
+    public long getElapsedNanosPercentile(QueryMetrics.Type type, double percentile) {
+        long[] histogram = getElapsedNanosHistogram(type);
+        long count = getCount(type);
+        long target = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) {
+                return i == 0 ? 0 : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Starts over from zero
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        for (int i = 0; i < elapsedNanos.length(); i++) {
+            elapsedNanos.set(i, 0);
+            nodesExpanded.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("QueryStatistics");
+        for (QueryMetrics.Type type : QueryMetrics.Type.values()) {
+            sb.append("\n").append(type).append(" count:").append(getCount(type))
+                    .append(" p50:").append(getElapsedNanosPercentile(type, 50)).append("ns")
+                    .append(" p99:").append(getElapsedNanosPercentile(type, 99)).append("ns");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.prettybyte.hexagons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An uncompressed image file with 4 bytes per pixel (red, green, blue, alpha) and no header, e.g. created with
+ * "convert huge.png rgba:huge.rgba". The rows are memory-mapped only when they are read, so the file can be much
+ * larger than the available memory.
+ */
+public class RawRgbaFile implements IPixelSource, Closeable {
+
+    private static final long MAX_BYTES_PER_MAPPING = 1 << 30;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param path   the file
+     * @param width  the width of the image in pixels
+     * @param height the height of the image in pixels
+     * @throws IOException if the file cannot be opened or is too small for the specified size
+     */
+    public RawRgbaFile(Path path, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() < (long) width * height * 4) {
+            channel.close();
+            throw new IOException("The file " + path + " is too small for a " + width + "x" + height + " RGBA image");
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void readRows(int firstRow, int rowCount, int[] buffer, int offset) throws IOException {
+        int pixelCount = rowCount * width;
+        map(firstRow, rowCount).get(buffer, offset, pixelCount);
+        toArgb(buffer, offset, pixelCount);
+    }
+
+    /**
+     * Maps the part of the file from the first to the last row once (or in a few parts if it is very large), so only
+     * the pages of the rows are actually read
+     */
+    @Override
+    public void readRows(int[] rows, int[] buffer, int offset) throws IOException {
+        int rowsPerMapping = (int) Math.max(1, MAX_BYTES_PER_MAPPING / ((long) width * 4));
+        IntBuffer mapped = null;
+        int firstMappedRow = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (mapped == null || rows[i] >= firstMappedRow + rowsPerMapping) {
+                firstMappedRow = rows[i];
+                mapped = map(firstMappedRow, Math.min(rowsPerMapping, rows[rows.length - 1] - firstMappedRow + 1));
+            }
+            mapped.position((rows[i] - firstMappedRow) * width);
+            mapped.get(buffer, offset + i * width, width);
+        }
+        toArgb(buffer, offset, rows.length * width);
+    }
+
+    private IntBuffer map(int firstRow, int rowCount) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, (long) firstRow * width * 4, (long) rowCount * width * 4)
+                .order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+    }
+
+    private static void toArgb(int[] buffer, int offset, int pixelCount) {
+        for (int i = offset; i < offset + pixelCount; i++) {
+            int rgba = buffer[i];
+            buffer[i] = (rgba >>> 8) | (rgba << 24);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
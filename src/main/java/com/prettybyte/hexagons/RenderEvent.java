@@ -0,0 +1,24 @@
+package com.prettybyte.hexagons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for every time the Hexagons are put into a Group (render)
+ */
+@Name("com.prettybyte.hexagons.Render")
+@Label("Render")
+@Category("Hexagons")
+@Description("Putting the Hexagons of a map into a Group")
+class RenderEvent extends jdk.jfr.Event {
+    @Label("Hexagons")
+    int hexagons;
+
+    @Label("Visible Area Only")
+    boolean visibleAreaOnly;
+
+    @Label("Low Detail")
+    boolean lowDetail;
+}
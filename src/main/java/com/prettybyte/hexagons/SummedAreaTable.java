@@ -0,0 +1,103 @@
+package com.prettybyte.hexagons;
+
+import java.util.stream.IntStream;
+
+/**
+ * A summed-area table for each channel of an ARGB image. When it has been built, the average color of any
+ * rectangle can be found in constant time.
+ * <p>
+ * The sums are ints, which overflow on large images. Since they are only added and subtracted, the sum of a rectangle
+ * is still correct modulo 2^32, and that is the real sum as long as the rectangle has at most MAX_AREA pixels (255 *
+ * MAX_AREA < 2^32). Larger rectangles are summed in parts.
+ */
+class SummedAreaTable {
+
+    static final int BYTES_PER_PIXEL = 4 * 4;      // Used by MapGenerator to decide how large the strips can be
+    private static final int COLUMNS_PER_TASK = 64;
+    private static final int MAX_SIDE = 1 << 12;
+    private static final long MAX_AREA = (long) MAX_SIDE * MAX_SIDE;
+
+    private final int width;
+    private final int height;
+    private final int[][] sums;         // [channel][y * (width + 1) + x] = sum (modulo 2^32) of all pixels above and to the left of (x, y)
+
+    /**
+     * Builds the table in parallel
+     *
+     * @param pixels ARGB pixels, row by row
+     */
+    SummedAreaTable(int[] pixels, int width, int height) {
+        this.width = width;
+        this.height = height;
+        int stride = width + 1;
+        sums = new int[4][stride * (height + 1)];
+
+        IntStream.range(0, height).parallel().forEach(y -> {                // Sum each row...
+            for (int channel = 0; channel < 4; channel++) {
+                int[] channelSums = sums[channel];
+                int shift = 24 - channel * 8;
+                int rowSum = 0;
+                int pixelIndex = y * width;
+                int sumIndex = (y + 1) * stride + 1;
+                for (int x = 0; x < width; x++) {
+                    rowSum += (pixels[pixelIndex + x] >>> shift) & 0xff;
+                    channelSums[sumIndex + x] = rowSum;
+                }
+            }
+        });
+        int tasks = (width + COLUMNS_PER_TASK - 1) / COLUMNS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task -> {              // ...then add the rows together
+            int firstColumn = 1 + task * COLUMNS_PER_TASK;
+            int lastColumn = Math.min(width, firstColumn + COLUMNS_PER_TASK - 1);
+            for (int[] channelSums : sums) {
+                for (int y = 1; y <= height; y++) {
+                    int above = (y - 1) * stride;
+                    int current = y * stride;
+                    for (int x = firstColumn; x <= lastColumn; x++) {
+                        channelSums[current + x] += channelSums[above + x];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the average ARGB color of the pixels from (x0, y0) inclusive to (x1, y1) exclusive. The rectangle is
+     * clamped to the image, but will always contain at least one pixel.
+     */
+    int getAverage(int x0, int y0, int x1, int y1) {
+        x0 = clamp(x0, 0, width - 1);
+        y0 = clamp(y0, 0, height - 1);
+        x1 = clamp(x1, x0 + 1, width);
+        y1 = clamp(y1, y0 + 1, height);
+        long area = (long) (x1 - x0) * (y1 - y0);
+        int argb = 0;
+        for (int channel = 0; channel < 4; channel++) {
+            long sum = 0;
+            if (area <= MAX_AREA) {
+                sum = getSum(sums[channel], x0, y0, x1, y1);
+            } else {
+                for (int top = y0; top < y1; top += MAX_SIDE) {
+                    for (int left = x0; left < x1; left += MAX_SIDE) {
+                        sum += getSum(sums[channel], left, top, Math.min(x1, left + MAX_SIDE), Math.min(y1, top + MAX_SIDE));
+                    }
+                }
+            }
+            int average = (int) ((sum + area / 2) / area);
+            argb |= average << (24 - channel * 8);
+        }
+        return argb;
+    }
+
+    /**
+     * @return the sum of a rectangle with at most MAX_AREA pixels
+     */
+    private long getSum(int[] s, int x0, int y0, int x1, int y1) {
+        int stride = width + 1;
+        return (s[y1 * stride + x1] - s[y0 * stride + x1] - s[y1 * stride + x0] + s[y0 * stride + x0]) & 0xffffffffL;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,244 @@
+package com.prettybyte.hexagons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Finds a shortest path when every step between neighbours has the same cost. The many paths of equal length are
+ * pruned like in jump point search, adapted to the six directions of the grid:
+ * <p>
+ * On an open map, the shortest paths to a Hexagon use two neighbouring directions, in any order. Only one order is
+ * allowed: the even directions (NW, E, SW) come first, and the odd directions (NE, SE, W) last. A step in an odd
+ * direction is therefore only followed by a step in the same direction, and a step in an even direction by a step in
+ * the same or one of the two neighbouring directions. Where a blocking Hexagon makes the allowed order impossible, the
+ * other order is allowed too (a "forced" neighbour). The search then jumps along straight lines and only stops on the
+ * destination and on Hexagons where the path may turn, so large open areas are crossed with a few expansions.
+ * <p>
+ * Every step along an even line looks along the two odd lines from it, and on an open map those lines are long. A
+ * line is therefore never followed more than MAX_SCAN steps. Stopping early is always safe, since the jump point is
+ * expanded with the same directions as the line would have continued with.
+ */
+class UniformCostSearch {
+
+    private static final int[][] DIRECTIONS = {{0, -1}, {+1, -1}, {+1, 0}, {0, +1}, {-1, +1}, {-1, 0}};    // Same order as HexagonMap.Direction
+    private static final int START = -1;
+    private static final int CHECK_INTERVAL = 4096;     // Scanned Hexagons between the calls to the QueryControl
+    private static final int MAX_SCAN = 16;            // Longer lines are split into several jumps
+
+    private final HexagonMap map;
+    private final Hexagon destination;
+    private final IPathInfoSupplier pathInfoSupplier;
+    private final QueryControl control;
+    private int scanned;
+    private int supplierCalls;
+
+    private UniformCostSearch(Hexagon start, Hexagon destination, IPathInfoSupplier pathInfoSupplier, QueryControl control) {
+        this.map = start.getMap();
+        this.destination = destination;
+        this.pathInfoSupplier = pathInfoSupplier;
+        this.control = control;
+    }
+
+    /**
+     * Used by Calculations.getPathBetween() when pathInfoSupplier.hasUniformMovementCost() is true. Like that method,
+     * the path doesn't include start, and the destination may be a blocking Hexagon.
+     */
+    static ArrayList<Hexagon> getPathBetween(Hexagon start, Hexagon destination, IPathInfoSupplier pathInfoSupplier, QueryControl control) throws NoPathFoundException {
+        return new UniformCostSearch(start, destination, pathInfoSupplier, control).search(start);
+    }
+
+    private ArrayList<Hexagon> search(Hexagon start) throws NoPathFoundException {
+        IQueryListener listener = map.queryListener;
+        long startTime = (listener == null) ? 0 : System.nanoTime();
+        int nodesExpanded = 0, peakOpenSetSize = 1;
+        Object event = FlightRecorder.beginPathQuery();
+
+        // A Hexagon may be reached with the same cost from different directions, which allow different next steps, so
+        // the direction is part of the state. A state is only dropped if the Hexagon can be reached more cheaply.
+        PriorityQueue<JumpPoint> openSet = new PriorityQueue<>();
+        IdentityHashMap<Hexagon, Integer> gScore = new IdentityHashMap<>();
+        IdentityHashMap<Hexagon, Integer> closedDirections = new IdentityHashMap<>();       // A bit for every direction (and START)
+        openSet.add(new JumpPoint(start, START, 0, distance(start), null));
+        gScore.put(start, 0);
+
+        while (!openSet.isEmpty()) {
+            if (nodesExpanded % Calculations.CHECK_INTERVAL == 0) {
+                control.check();
+            }
+            JumpPoint current = openSet.poll();
+            if (current.hexagon.equals(destination)) {
+                ArrayList<Hexagon> path = reconstructPath(current);
+                Calculations.reportPath(listener, startTime, event, start, destination, nodesExpanded, peakOpenSetSize, supplierCalls, path.size());
+                return path;
+            }
+            int closed = closedDirections.getOrDefault(current.hexagon, 0);
+            int bit = 1 << (current.direction + 1);
+            if ((closed & bit) != 0 || current.g > gScore.get(current.hexagon)) {
+                continue;
+            }
+            closedDirections.put(current.hexagon, closed | bit);
+            nodesExpanded++;
+
+            for (int direction = 0; direction < 6; direction++) {
+                if (!isAllowed(current, direction)) {
+                    continue;
+                }
+                JumpPoint next = jump(current, direction);
+                if (next == null) {
+                    continue;
+                }
+                Integer previous = gScore.get(next.hexagon);
+                if (previous == null || next.g <= previous) {
+                    gScore.put(next.hexagon, next.g);
+                    openSet.add(next);
+                    peakOpenSetSize = Math.max(peakOpenSetSize, openSet.size());
+                }
+            }
+        }
+        Calculations.reportPath(listener, startTime, event, start, destination, nodesExpanded, peakOpenSetSize, supplierCalls, 0);
+        throw new NoPathFoundException("Can't find any path to the goal Hexagon");
+    }
+
+    /**
+     * @return true if the path may continue in the direction from the jump point
+     */
+    private boolean isAllowed(JumpPoint point, int direction) {
+        int from = point.direction;
+        if (from == START || direction == from) {
+            return true;
+        }
+        if (from % 2 == 0) {
+            return direction == turn(from, 1) || direction == turn(from, -1);
+        }
+        return (direction == turn(from, 1) || direction == turn(from, -1)) && isForced(point.hexagon.getQ(), point.hexagon.getR(), from, direction);
+    }
+
+    /**
+     * After a step in the odd direction "from" to (q, r), the neighbour in the direction "turn" is normally reached by
+     * taking the even step first. It is forced if that Hexagon is blocking.
+     */
+    private boolean isForced(int q, int r, int from, int turn) {
+        return canEnter(q + DIRECTIONS[turn][0], r + DIRECTIONS[turn][1])
+                && !isPassable(q - DIRECTIONS[from][0] + DIRECTIONS[turn][0], r - DIRECTIONS[from][1] + DIRECTIONS[turn][1]);
+    }
+
+    /**
+     * Walks in a straight line from the jump point until the destination or a Hexagon where the path may turn
+     *
+     * @return the next jump point, or null if the line ends in a blocking Hexagon or outside the map
+     */
+    private JumpPoint jump(JumpPoint from, int direction) {
+        int q = from.hexagon.getQ();
+        int r = from.hexagon.getR();
+        int steps = 0;
+        while (true) {
+            q += DIRECTIONS[direction][0];
+            r += DIRECTIONS[direction][1];
+            steps++;
+            if (!canEnter(q, r)) {
+                return null;
+            }
+            if (isDestination(q, r) || isTurningPoint(q, r, direction) || (direction % 2 == 1 && steps >= MAX_SCAN)) {
+                Hexagon hexagon = map.getHexagonOrNull(q, r);
+                int g = from.g + steps;
+                return new JumpPoint(hexagon, direction, g, g + distance(hexagon), from);
+            }
+        }
+    }
+
+    private boolean isTurningPoint(int q, int r, int direction) {
+        if (direction % 2 == 1) {
+            return isForced(q, r, direction, turn(direction, 1)) || isForced(q, r, direction, turn(direction, -1));
+        }
+        // After an even step the path may turn to the neighbouring odd directions, and it should stop here if any of
+        // those lines leads somewhere
+        return scan(q, r, turn(direction, 1)) || scan(q, r, turn(direction, -1));
+    }
+
+    /**
+     * Like jump(), for an odd direction, but only finds out if there is a jump point on the line (or if it is long)
+     */
+    private boolean scan(int q, int r, int direction) {
+        for (int steps = 1; ; steps++) {
+            q += DIRECTIONS[direction][0];
+            r += DIRECTIONS[direction][1];
+            if (!canEnter(q, r)) {
+                return false;
+            }
+            if (isDestination(q, r) || isTurningPoint(q, r, direction) || steps >= MAX_SCAN) {
+                return true;
+            }
+        }
+    }
+
+    private boolean canEnter(int q, int r) {
+        return isPassable(q, r) || isDestination(q, r);
+    }
+
+    private boolean isPassable(int q, int r) {
+        if (++scanned % CHECK_INTERVAL == 0) {
+            control.check();
+        }
+        Hexagon hexagon = map.getHexagonOrNull(q, r);
+        if (hexagon == null) {
+            return false;
+        }
+        supplierCalls++;
+        return !pathInfoSupplier.isBlockingPath(hexagon);
+    }
+
+    private boolean isDestination(int q, int r) {
+        return q == destination.getQ() && r == destination.getR();
+    }
+
+    private int distance(Hexagon hexagon) {
+        return GridPosition.getDistance(hexagon.position, destination.position);
+    }
+
+    private static int turn(int direction, int steps) {
+        return (direction + steps + 6) % 6;
+    }
+
+    /**
+     * Fills in the Hexagons on the straight lines between the jump points
+     */
+    private ArrayList<Hexagon> reconstructPath(JumpPoint goal) {
+        ArrayList<Hexagon> path = new ArrayList<>();
+        for (JumpPoint point = goal; point.parent != null; point = point.parent) {
+            int q = point.hexagon.getQ();
+            int r = point.hexagon.getR();
+            for (int step = point.g - point.parent.g; step > 0; step--) {
+                path.add(map.getHexagonOrNull(q, r));
+                q -= DIRECTIONS[point.direction][0];
+                r -= DIRECTIONS[point.direction][1];
+            }
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static class JumpPoint implements Comparable<JumpPoint> {
+        final Hexagon hexagon;
+        final int direction;        // The direction of the last step, or START
+        final int g, f;
+        final JumpPoint parent;
+
+        JumpPoint(Hexagon hexagon, int direction, int g, int f, JumpPoint parent) {
+            this.hexagon = hexagon;
+            this.direction = direction;
+            this.g = g;
+            this.f = f;
+            this.parent = parent;
+        }
+
+        @Override
+        public int compareTo(JumpPoint other) {
+            if (f != other.f) {
+                return Integer.compare(f, other.f);
+            }
+            return Integer.compare(other.g, g);       // Prefer the jump point that has come further
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.prettybyte.hexagons;
+
+/**
+ * Layered (fractal) value noise. The noise is calculated from the seed and the coordinates only, without any
+ * state, so it gives exactly the same values on every thread and every computer. Only basic arithmetic and
+ * Math.floor() are used, which are exact on every JVM that runs with SSE2 (and on all JVMs since Java 17).
+ */
+public class ValueNoise {
+
+    private static final double SQRT_3_HALF = 0.8660254037844386;
+
+    private final long seed;
+    private final int octaves;
+    private final double frequency;
+
+    /**
+     * @param seed      different seeds give different noise
+     * @param octaves   the number of layers. Every layer has twice the frequency and half the amplitude of the
+     *                  previous one.
+     * @param frequency how quickly the first layer changes, e.g. 0.05 gives features about 20 Hexagons wide
+     */
+    public ValueNoise(long seed, int octaves, double frequency) {
+        this.seed = seed;
+        this.octaves = octaves;
+        this.frequency = frequency;
+    }
+
+    /**
+     * @return the noise value at the center of the Hexagon at q, r, between 0 and 1
+     */
+    public double getValue(int q, int r) {
+        // Use the position of the center so that the noise is not skewed by the axial coordinate system
+        return getValue(q + r / 2.0, r * SQRT_3_HALF);
+    }
+
+    /**
+     * @return the noise value at x, y, between 0 and 1
+     */
+    public double getValue(double x, double y) {
+        double sum = 0;
+        double totalAmplitude = 0;
+        double amplitude = 1;
+        double f = frequency;
+        for (int octave = 0; octave < octaves; octave++) {
+            sum += amplitude * noise(x * f, y * f, mix(seed + octave));
+            totalAmplitude += amplitude;
+            amplitude /= 2;
+            f *= 2;
+        }
+        return totalAmplitude == 0 ? 0 : sum / totalAmplitude;
+    }
+
+    private static double noise(double x, double y, long seed) {
+        double floorX = Math.floor(x);
+        double floorY = Math.floor(y);
+        long x0 = (long) floorX;
+        long y0 = (long) floorY;
+        double sx = smooth(x - floorX);
+        double sy = smooth(y - floorY);
+        double top = interpolate(latticeValue(x0, y0, seed), latticeValue(x0 + 1, y0, seed), sx);
+        double bottom = interpolate(latticeValue(x0, y0 + 1, seed), latticeValue(x0 + 1, y0 + 1, seed), sx);
+        return interpolate(top, bottom, sy);
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double interpolate(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * @return a random value between 0 and 1 for a point on the integer lattice
+     */
+    private static double latticeValue(long x, long y, long seed) {
+        long hash = mix(seed ^ mix(x * 0x9E3779B97F4A7C15L + y));
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The finalizer of SplitMix64, which turns similar numbers into very different ones
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
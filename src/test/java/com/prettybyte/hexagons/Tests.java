@@ -1,8 +1,38 @@
 package com.prettybyte.hexagons;
 
+import javafx.scene.Group;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
+
 public class Tests {
     @Test
     public void remove() {
@@ -33,4 +63,804 @@ public class Tests {
         Assert.assertTrue(center.getDirectionTo(west).equals(HexagonMap.Direction.WEST));
 
     }
+
+    @Test
+    public void hexagonsInArea() {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 100; r++) {
+            for (int q = -50; q < 100; q++) {
+                map.addHexagon(new Hexagon(q, r));
+            }
+        }
+        ArrayList<Hexagon> visible = map.getHexagonsInArea(200, 300, 150, 100);
+        for (Hexagon h : map.getAllHexagons()) {
+            boolean centerInside = h.getGraphicsXoffset() >= 200 && h.getGraphicsXoffset() <= 350
+                    && h.getGraphicsYoffset() >= 300 && h.getGraphicsYoffset() <= 400;
+            if (centerInside) {
+                Assert.assertTrue(visible.contains(h));
+            }
+        }
+        Assert.assertTrue(visible.size() < 300);
+    }
+
+    @Test
+    public void coalescedColorUpdates() {
+        ArrayList<Runnable> posted = new ArrayList<>();
+        ColorUpdateBuffer buffer = new ColorUpdateBuffer(posted::add);
+        Hexagon a = new Hexagon(1, 1);
+        Hexagon b = new Hexagon(1, 2);
+        buffer.setColor(a, Color.RED);
+        buffer.setColor(b, Color.GREEN);
+        buffer.setColor(a, Color.BLUE);
+        Assert.assertEquals(1, posted.size());
+        posted.get(0).run();
+        Assert.assertEquals(Color.BLUE, a.getFill());
+        Assert.assertEquals(Color.GREEN, b.getFill());
+        buffer.setColor(b, null);
+        Assert.assertEquals(2, posted.size());
+        posted.get(1).run();
+        Assert.assertNull(b.getFill());
+
+        Hexagon replacement = new Hexagon(1, 1);         // Same position as a, but another Polygon
+        buffer.setColor(a, Color.RED);
+        buffer.setColor(replacement, Color.YELLOW);
+        posted.get(2).run();
+        Assert.assertEquals(Color.RED, a.getFill());
+        Assert.assertEquals(Color.YELLOW, replacement.getFill());
+
+        HexagonMap map = new HexagonMap(10);
+        Hexagon inMap = map.addHexagon(new Hexagon(1, 1));
+        HashMap<Hexagon, Color> colors = new HashMap<>();
+        colors.put(inMap, Color.RED);
+        colors.put(a, Color.BLUE);                      // Not in the map
+        try {
+            map.setBackgroundColors(colors);
+            Assert.fail("Only the Hexagons of the map can be colored through the map");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertNull(inMap.getBackgroundColor());
+        colors.remove(a);
+        map.setBackgroundColors(colors);
+        Assert.assertEquals(Color.RED, inMap.getBackgroundColor());
+    }
+
+    @Test
+    public void samePositionInTwoMaps() {
+        HexagonMap first = new HexagonMap(10);
+        HexagonMap second = new HexagonMap(10);
+        first.addHexagon(new Hexagon(2, 3));
+        second.addHexagon(new Hexagon(2, 3));
+        Group group = new Group();
+        Group hud = new Group();                    // Something of the application, e.g. a HUD
+        group.getChildren().add(hud);
+        first.setPadding(5, 5);
+        first.render(group);
+        second.render(group);
+        Assert.assertEquals(3, group.getChildren().size());
+        Assert.assertTrue(group.getTransforms().isEmpty());
+        Assert.assertTrue(hud.getTransforms().isEmpty());
+        first.render(group);                        // Rendering again replaces the hexagons
+        Assert.assertEquals(3, group.getChildren().size());
+        Assert.assertEquals(1, ((Group) group.getChildren().get(1)).getChildren().size());
+    }
+
+    @Test
+    public void pixelToPositionFast() {
+        int mismatches = 0;
+        for (int x = -300; x < 300; x++) {
+            for (int y = -300; y < 300; y++) {
+                GridPosition expected = GridDrawer.pixelToPosition(x, y, 20, 7, 3);
+                GridPosition actual = GridDrawer.pixelToPositionFast(x, y, 20, 7, 3);
+                if (!expected.equals(actual)) {
+                    Assert.assertTrue(expected.isAdjacent(actual));         // Only on the border between two hexagons
+                    mismatches++;
+                }
+            }
+        }
+        Assert.assertTrue(mismatches < 100);
+    }
+
+    @Test
+    public void padding() throws NoHexagonFoundException {
+        HexagonMap map = new HexagonMap(10);
+        Hexagon h = map.addHexagon(new Hexagon(4, 7));
+        int x = h.getGraphicsXoffset();
+        int y = h.getGraphicsYoffset();
+        List<Double> points = new ArrayList<>(h.getPoints());
+        map.setPadding(100, 50);
+        Assert.assertEquals(x + 100, h.getGraphicsXoffset());
+        Assert.assertEquals(y + 50, h.getGraphicsYoffset());
+        Assert.assertEquals(points, h.getPoints());
+        Assert.assertEquals(h, map.getHexagonContainingPixel(h.getGraphicsXoffset(), h.getGraphicsYoffset()));
+    }
+
+    @Test
+    public void rasterizer() {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 30; r++) {
+            for (int q = -15; q < 30; q++) {
+                map.addHexagon(new Hexagon(q, r)).setBackgroundColor((q + r) % 2 == 0 ? Color.RED : Color.BLUE);
+            }
+        }
+        MapRasterizer rasterizer = new MapRasterizer(map, 0.5, 64);
+        BufferedImage image = rasterizer.render();
+        Assert.assertEquals(rasterizer.getWidth(), image.getWidth());
+        int left = Integer.MAX_VALUE;
+        for (Hexagon h : map.getAllHexagons()) {
+            left = Math.min(left, h.getGraphicsXoffset() - 10);
+        }
+        for (Hexagon h : map.getAllHexagons()) {
+            int pixel = image.getRGB((int) ((h.getGraphicsXoffset() - left) * 0.5), (int) ((h.getGraphicsYoffset() + 10) * 0.5));
+            Assert.assertEquals(Colors.toArgb(h.getBackgroundColor()), pixel);
+        }
+    }
+
+    @Test
+    public void generateFromImage() throws NoHexagonFoundException {
+        WritableImage image = new WritableImage(400, 300);
+        for (int x = 0; x < 400; x++) {
+            for (int y = 0; y < 300; y++) {
+                image.getPixelWriter().setColor(x, y, x < 200 ? Color.GREEN : Color.BLUE);
+            }
+        }
+        HexagonMap map = new HexagonMap(5, image, 40);
+        Assert.assertEquals(0, map.getAllHexagons().size() % 40);
+        Assert.assertEquals(Color.GREEN, map.getHexagon(2, 10).getBackgroundColor());
+        Assert.assertEquals(Color.BLUE, map.getHexagon(30, 10).getBackgroundColor());
+    }
+
+    @Test
+    public void summedAreaTable() {
+        int[] pixels = new int[100 * 70];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 2 == 0) ? 0xff000000 : 0xff00c864;
+        }
+        SummedAreaTable table = new SummedAreaTable(pixels, 100, 70);
+        Assert.assertEquals(0xff006432, table.getAverage(10, 10, 30, 30));
+        Assert.assertEquals(pixels[5 * 100 + 7], table.getAverage(7, 5, 8, 6));
+        Assert.assertEquals(pixels[69 * 100 + 99], table.getAverage(200, 200, 300, 300));       // Clamped to the last pixel
+    }
+
+    @Test
+    public void generateWithAreaAverage() {
+        WritableImage image = new WritableImage(600, 400);
+        for (int y = 0; y < 400; y++) {
+            for (int x = 0; x < 600; x++) {
+                // A checkerboard of black and green (which averages to half green) to the left, blue to the right
+                image.getPixelWriter().setArgb(x, y, x >= 300 ? 0xff0000ff : (x + y) % 2 == 0 ? 0xff000000 : 0xff00c800);
+            }
+        }
+        ArrayList<int[]> created = new ArrayList<>();
+        HexagonMap map = new HexagonMap(5, image, 20, (q, r, color, m) -> created.add(new int[]{q, r, Colors.toArgb(color)}), HexagonMap.ImageSampling.AREA_AVERAGE);
+        double horizontalRelation = 600 / (20 * map.getGraphicsHorizontalDistanceBetweenHexagons());
+        int left = 0, right = 0;
+        for (int[] hexagon : created) {
+            double x = Hexagon.calculateGraphicsXoffset(hexagon[0], hexagon[1], 5) * horizontalRelation;
+            if (x < 270) {
+                Assert.assertEquals(0xff000000, hexagon[2] & 0xffff00ff);
+                Assert.assertEquals(100, (hexagon[2] >>> 8) & 0xff, 3);
+                left++;
+            } else if (x > 330) {
+                Assert.assertEquals(0xff0000ff, hexagon[2]);
+                right++;
+            }
+        }
+        Assert.assertTrue(left > 100 && right > 100);
+    }
+
+    @Test
+    public void generateFromRawRgbaFile() throws Exception {
+        int width = 300;
+        int height = 200;
+        WritableImage image = new WritableImage(width, height);
+        ByteBuffer bytes = ByteBuffer.allocate(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = (x * 7919 + y * 104729) & 0xffffff;
+                image.getPixelWriter().setArgb(x, y, 0xff000000 | rgb);
+                bytes.putInt((rgb << 8) | 0xff);
+            }
+        }
+        Path file = Files.createTempFile("hexagons", ".rgba");
+        Files.write(file, bytes.array());
+        for (HexagonMap.ImageSampling sampling : HexagonMap.ImageSampling.values()) {
+            HashMap<String, Color> expected = new HashMap<>();
+            new HexagonMap(5, image, 30, (q, r, color, map) -> expected.put(q + "," + r, color), sampling);
+            HashMap<String, Color> actual = new HashMap<>();
+            try (RawRgbaFile source = new RawRgbaFile(file, width, height)) {
+                new HexagonMap(5, source, 30, (q, r, color, map) -> actual.put(q + "," + r, color), sampling);
+            }
+            Assert.assertEquals(expected, actual);
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void centerPixelSampling() throws Exception {
+        int width = 500;
+        int height = 400;
+        ByteBuffer bytes = ByteBuffer.allocate(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bytes.putInt((x << 20) | (y << 8) | 0xff);      // The color tells where the pixel is
+            }
+        }
+        Path file = Files.createTempFile("hexagons", ".rgba");
+        Files.write(file, bytes.array());
+        HexagonMap map = new HexagonMap(5);
+        ArrayList<int[]> created = new ArrayList<>();
+        MapGenerator generator;
+        try (RawRgbaFile source = new RawRgbaFile(file, width, height)) {
+            generator = new MapGenerator(map, source, 30, HexagonMap.ImageSampling.CENTER_PIXEL);
+            generator.generate((q, r, color, m) -> created.add(new int[]{q, r, Colors.toArgb(color)}));
+        }
+        Files.delete(file);
+        double horizontalRelation = generator.getHorizontalRelation().get();
+        double verticalRelation = generator.getVerticalRelation().get();
+        Assert.assertTrue(created.size() > 30 * 20);
+        for (int[] hexagon : created) {
+            int x = (hexagon[2] >>> 12) & 0xfff;
+            int y = hexagon[2] & 0xfff;
+            double expectedX = Math.floor(Hexagon.calculateGraphicsXoffset(hexagon[0], hexagon[1], 5) * horizontalRelation);
+            double expectedY = Math.floor(Hexagon.calculateGraphicsYoffset(hexagon[1], 5) * verticalRelation);
+            Assert.assertEquals(Math.max(0, Math.min(width - 1, expectedX)), x, 0);     // The nearest pixel if outside
+            Assert.assertEquals(Math.max(0, Math.min(height - 1, expectedY)), y, 0);
+        }
+    }
+
+    @Test
+    public void saveAndOpenFile() throws Exception {
+        HexagonMap map = new HexagonMap(7);
+        Hexagon a = map.addHexagon(new Hexagon(-3, 5));
+        a.setIsBlockingPath(true);
+        a.setBackgroundColor(Color.rgb(10, 20, 30, 0.4));
+        Hexagon b = map.addHexagon(new Hexagon(8, -2));
+        b.setIsVisualObstacle(true);
+        Map<String, ToIntFunction<Hexagon>> attributes = new LinkedHashMap<>();
+        attributes.put("sum", h -> h.getQ() + h.getR());
+        Path file = Files.createTempFile("hexagons", ".hexmap");
+        HexagonMapFile.save(map, file, attributes);
+
+        try (HexagonMapFile mapFile = HexagonMapFile.open(file)) {
+            Assert.assertEquals(2, mapFile.size());
+            Assert.assertEquals(7, mapFile.getHexagonSize());
+            Assert.assertEquals(Collections.singletonList("sum"), mapFile.getAttributeNames());
+            for (int i = 0; i < mapFile.size(); i++) {
+                Assert.assertEquals(mapFile.getQ(i) + mapFile.getR(i), mapFile.getAttribute("sum", i));
+            }
+            HexagonMap loaded = mapFile.toHexagonMap();
+            Hexagon loadedA = loaded.getHexagon(-3, 5);
+            Assert.assertTrue(loadedA.isBlockingPath());
+            Assert.assertFalse(loadedA.isVisualObstacle());
+            Assert.assertEquals(Colors.toArgb(a.getBackgroundColor()), Colors.toArgb(loadedA.getBackgroundColor()));
+            Hexagon loadedB = loaded.getHexagon(8, -2);
+            Assert.assertTrue(loadedB.isVisualObstacle());
+            Assert.assertNull(loadedB.getBackgroundColor());
+        }
+
+        char[] longName = new char[Short.MAX_VALUE + 1];
+        Arrays.fill(longName, 'x');
+        try {
+            HexagonMapFile.save(map, file, Collections.singletonMap(new String(longName), Hexagon::getQ));
+            Assert.fail("The length of the name would not fit in the file");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        try (RandomAccessFile tooLarge = new RandomAccessFile(file.toFile(), "rw")) {
+            tooLarge.setLength(Integer.MAX_VALUE + 1L);         // Sparse, so it doesn't take any space
+        }
+        try {
+            HexagonMapFile.open(file).close();
+            Assert.fail("A file larger than 2 GB is not a HexagonMap file");
+        } catch (IOException expected) {
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void journalReplay() throws NoHexagonFoundException {
+        HexagonMap map = new HexagonMap(10);
+        map.addHexagon(new Hexagon(0, 0));
+        HexagonMapJournal journal = map.startJournal();
+        HexagonMap replica = new HexagonMap(10);
+        HexagonMapJournal.replay(journal.getSnapshot(), replica);
+        long offset = journal.getSnapshotOffset();
+
+        Hexagon h = map.addHexagon(new Hexagon(-200, 3000));
+        h.setIsBlockingPath(true);
+        h.setBackgroundColor(Color.RED);
+        map.addHexagon(new Hexagon(5, 5)).setIsVisualObstacle(true);
+        map.removeHexagon(map.getHexagon(0, 0));
+        HexagonMapJournal.replay(journal.read(offset), replica);
+        offset = journal.getEndOffset();
+        assertSameHexagons(map, replica);
+
+        journal.compact();
+        map.getHexagon(5, 5).setBackgroundColor(Color.BLUE);
+        HexagonMap newReplica = new HexagonMap(10);
+        HexagonMapJournal.replay(journal.getSnapshot(), newReplica);
+        HexagonMapJournal.replay(journal.read(journal.getSnapshotOffset()), newReplica);
+        HexagonMapJournal.replay(journal.read(offset), replica);
+        assertSameHexagons(map, newReplica);
+        assertSameHexagons(map, replica);
+    }
+
+    private static void assertSameHexagons(HexagonMap expected, HexagonMap actual) throws NoHexagonFoundException {
+        Assert.assertEquals(expected.getAllHexagons().size(), actual.getAllHexagons().size());
+        for (Hexagon e : expected.getAllHexagons()) {
+            Hexagon a = actual.getHexagon(e.getQ(), e.getR());
+            Assert.assertEquals(e.isBlockingPath(), a.isBlockingPath());
+            Assert.assertEquals(e.isVisualObstacle(), a.isVisualObstacle());
+            Assert.assertEquals(e.getBackgroundColor(), a.getBackgroundColor());
+        }
+    }
+
+    @Test
+    public void proceduralGenerationIsDeterministic() {
+        ValueNoise noise = new ValueNoise(42, 4, 0.05);
+        IHexagonColorFunction colorFunction = (q, r, seed) -> Color.gray(noise.getValue(q, r));
+        ArrayList<String> sequential = new ArrayList<>();
+        ArrayList<String> parallel = new ArrayList<>();
+        ForkJoinPool oneThread = new ForkJoinPool(1);
+        ForkJoinPool fourThreads = new ForkJoinPool(4);
+        try {
+            new ProceduralGenerator(new HexagonMap(5), 100, 150, 42, colorFunction)
+                    .generate((q, r, color, map) -> sequential.add(q + "," + r + "," + color), oneThread);
+            new ProceduralGenerator(new HexagonMap(5), 100, 150, 42, colorFunction)
+                    .generate((q, r, color, map) -> parallel.add(q + "," + r + "," + color), fourThreads);
+        } finally {
+            oneThread.shutdown();
+            fourThreads.shutdown();
+        }
+        Assert.assertEquals(100 * 150, sequential.size());
+        Assert.assertEquals(sequential, parallel);
+        for (int i = 0; i < 1000; i++) {
+            double value = noise.getValue(i * 37 - 5000, i * 11 - 3000);
+            Assert.assertTrue(value >= 0 && value <= 1);
+        }
+        Assert.assertNotEquals(noise.getValue(3, 4), new ValueNoise(43, 4, 0.05).getValue(3, 4), 0);
+    }
+
+    @Test
+    public void queryMetrics() throws NoHexagonFoundException, NoPathFoundException {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 20; r++) {
+            for (int q = 0; q < 20; q++) {
+                map.addHexagon(new Hexagon(q, r));
+            }
+        }
+        map.getHexagon(5, 5).getPathTo(map.getHexagon(10, 10));
+
+        ArrayList<QueryMetrics> reported = new ArrayList<>();
+        QueryStatistics statistics = new QueryStatistics();
+        map.setQueryListener(metrics -> {
+            reported.add(metrics);
+            statistics.onQuery(metrics);
+        });
+        List<Hexagon> path = map.getHexagon(5, 5).getPathTo(map.getHexagon(10, 10));
+        map.getHexagon(5, 5).getVisibleHexes(3);
+        Assert.assertEquals(2, reported.size());
+        QueryMetrics pathMetrics = reported.get(0);
+        Assert.assertEquals(QueryMetrics.Type.PATH, pathMetrics.getType());
+        Assert.assertEquals(path.size(), pathMetrics.getResultSize());
+        Assert.assertTrue(pathMetrics.getNodesExpanded() >= 1);
+        Assert.assertTrue(pathMetrics.getSupplierCalls() >= pathMetrics.getNodesExpanded());
+        Assert.assertEquals(QueryMetrics.Type.FIELD_OF_VIEW, reported.get(1).getType());
+        Assert.assertEquals(1, statistics.getCount(QueryMetrics.Type.PATH));
+        Assert.assertEquals(0, statistics.getCount(QueryMetrics.Type.LINE));
+
+        map.setQueryListener(null);
+        map.getHexagon(5, 5).getPathTo(map.getHexagon(10, 10));
+        Assert.assertEquals(2, reported.size());
+    }
+
+    @Test
+    public void flightRecorderEvents() throws Exception {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 20; r++) {
+            for (int q = 0; q < 20; q++) {
+                map.addHexagon(new Hexagon(q, r));
+            }
+        }
+        HexagonMapJournal journal = map.startJournal();
+        long offset = journal.getEndOffset();
+        map.getHexagon(1, 1).setIsBlockingPath(true);
+        map.getHexagon(1, 1).setBackgroundColor(Color.RED);
+        map.getHexagon(2, 1).setBackgroundColor(Color.RED);
+        HexagonMap replica = new HexagonMap(10);
+        HexagonMapJournal.replay(journal.getSnapshot(), replica);
+
+        Path file = Files.createTempFile("hexagons", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.prettybyte.hexagons.PathQuery");
+            recording.enable("com.prettybyte.hexagons.FieldOfView");
+            recording.enable("com.prettybyte.hexagons.BulkMutation");
+            recording.start();
+            map.getHexagon(5, 5).getPathTo(map.getHexagon(10, 10));
+            map.getHexagon(5, 5).getVisibleHexes(3);
+            HexagonMapJournal.replay(journal.read(offset), replica);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        Assert.assertEquals(3, events.size());
+        RecordedEvent replay = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.prettybyte.hexagons.BulkMutation")).findFirst().get();
+        Assert.assertEquals("replayJournal", replay.getString("operation"));
+        Assert.assertEquals(2, replay.getInt("hexagons"));
+        RecordedEvent path = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.prettybyte.hexagons.PathQuery")).findFirst().get();
+        Assert.assertEquals(10, path.getInt("destinationQ"));
+        Assert.assertTrue(path.getInt("nodesExpanded") > 0);
+        Assert.assertEquals("Hexagons", path.getEventType().getCategoryNames().get(0));
+    }
+
+    @Test
+    public void queryService() throws Exception {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 60; r++) {
+            for (int q = -30; q < 60; q++) {
+                Hexagon h = map.addHexagon(new Hexagon(q, r));
+                h.setIsBlockingPath(q % 7 == 0 && r % 11 != 5);
+            }
+        }
+        Hexagon start = map.getHexagon(1, 1);
+        HexagonQueryService service = new HexagonQueryService(map, 4, 100);
+        List<CompletableFuture<List<Hexagon>>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(service.getPath(start, map.getHexagon(30 + i, 40), 10, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(start.getPathTo(map.getHexagon(30 + i, 40)), futures.get(i).get());
+        }
+
+        IPathInfoSupplier slowSupplier = new IPathInfoSupplier() {
+            @Override
+            public boolean isBlockingPath(Hexagon hexagon) {
+                return hexagon.isBlockingPath();
+            }
+
+            @Override
+            public int getMovementCost(Hexagon from, Hexagon to) {
+                LockSupport.parkNanos(100_000);
+                return 1;
+            }
+        };
+        CompletableFuture<List<Hexagon>> timedOut = service.getPath(start, map.getHexagon(50, 55), slowSupplier, 50, TimeUnit.MILLISECONDS);
+        try {
+            timedOut.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        HexagonQueryService small = new HexagonQueryService(map, 1, 2);
+        CompletableFuture<List<Hexagon>> running = small.getPath(start, map.getHexagon(50, 55), slowSupplier, 1, TimeUnit.MINUTES);
+        CompletableFuture<List<Hexagon>> waiting = small.getHexagonsInRange(start, 2, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<List<Hexagon>> rejected = small.getVisibleHexes(start, 5, 1, TimeUnit.MINUTES);
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        try {
+            waiting.get(5, TimeUnit.SECONDS);          // Times out although the only thread is busy
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertFalse(running.isDone());
+        running.cancel(true);
+        for (int i = 0; i < 500 && small.getPendingQueries() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, small.getPendingQueries());
+        Assert.assertFalse(small.getHexagonsInRange(start, 2, 1, TimeUnit.MINUTES).get().isEmpty());
+        service.shutdown();
+        small.shutdown();
+    }
+
+    @Test
+    public void cooperativePlanning() throws NoHexagonFoundException {
+        HexagonMap map = new HexagonMap(10);
+        ArrayList<Hexagon> free = new ArrayList<>();
+        for (int r = 0; r < 15; r++) {
+            for (int q = 0; q < 15; q++) {
+                Hexagon h = map.addHexagon(new Hexagon(q, r));
+                if (q == 7 && r != 7) {
+                    h.setIsBlockingPath(true);          // A wall with a single opening
+                } else {
+                    free.add(h);
+                }
+            }
+        }
+        Random random = new Random(1);
+        Collections.shuffle(free, random);
+        List<Hexagon> positions = new ArrayList<>(free.subList(0, 20));
+        List<Hexagon> goals = new ArrayList<>(free.subList(20, 40));
+
+        CooperativePlanner planner = new CooperativePlanner(new HexagonMap.DefaultPathInfoSupplier(), 16);
+        for (int round = 0; round < 30 && !positions.equals(goals); round++) {
+            List<List<Hexagon>> plans = planner.plan(positions, goals);
+            for (int t = 0; t < 8; t++) {
+                List<Hexagon> next = new ArrayList<>();
+                for (List<Hexagon> plan : plans) {
+                    next.add(plan.get(t));
+                }
+                Assert.assertEquals(next.size(), new HashSet<>(next).size());
+                for (int a = 0; a < next.size(); a++) {
+                    Hexagon step = next.get(a);
+                    Assert.assertFalse(step.isBlockingPath());
+                    Assert.assertTrue(step.equals(positions.get(a)) || step.getNeighbours().contains(positions.get(a)));
+                    int b = positions.indexOf(step);
+                    Assert.assertFalse("Agents " + a + " and " + b + " swap places", b >= 0 && b != a && next.get(b).equals(positions.get(a)));
+                }
+                positions = next;
+            }
+        }
+        Assert.assertEquals(goals, positions);
+    }
+
+    @Test
+    public void findNearest() throws NoHexagonFoundException {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 40; r++) {
+            for (int q = -20; q < 40; q++) {
+                Hexagon h = map.addHexagon(new Hexagon(q, r));
+                if ((q * 7 + r * 13) % 23 == 0) {
+                    map.tag(h, "water");
+                }
+            }
+        }
+        Hexagon origin = map.getHexagon(10, 20);
+        List<Hexagon> byScan = new ArrayList<>(map.getHexagonsWithTag("water"));
+        byScan.sort(Comparator.comparingInt(h -> GridPosition.getDistance(origin.position, h.position)));
+        for (String tagOrPredicate : new String[]{"tag", "predicate"}) {
+            List<Hexagon> nearest = tagOrPredicate.equals("tag")
+                    ? map.findNearest(origin, "water", 100, 5)
+                    : map.findNearest(origin, h -> map.hasTag(h, "water"), 100, 5);
+            Assert.assertEquals(5, nearest.size());
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(GridPosition.getDistance(origin.position, byScan.get(i).position), GridPosition.getDistance(origin.position, nearest.get(i).position));
+            }
+        }
+        Assert.assertFalse(map.findNearest(origin, h -> false, Integer.MAX_VALUE).isPresent());
+        Assert.assertEquals(byScan.size(), map.findNearest(origin, "water", Integer.MAX_VALUE, Integer.MAX_VALUE).size());
+        Assert.assertEquals(GridPosition.getDistance(new GridPosition(-20, 0), new GridPosition(39, 39)), map.getMaxDistanceFrom(new GridPosition(-20, 0)));
+
+        Hexagon water = map.findNearest(origin, "water", 100).get();
+        map.removeHexagon(water);
+        Assert.assertFalse(map.getHexagonsWithTag("water").contains(water));
+        Assert.assertTrue(map.getHexagonsWithTag("lava").isEmpty());
+        Hexagon replaced = map.getHexagonsWithTag("water").iterator().next();
+        map.addHexagon(new Hexagon(replaced.getQ(), replaced.getR()));
+        Assert.assertFalse(map.getHexagonsWithTag("water").contains(replaced));
+        try {
+            map.tag(replaced, "water");
+            Assert.fail("A Hexagon that is not in the map can't be tagged");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // A wall between origin and the closest match makes another one the closest by path
+        Hexagon target = map.getHexagon(13, 20);
+        map.tag(target, "target");
+        map.tag(map.getHexagon(10, 28), "target");
+        for (int r = 10; r < 30; r++) {
+            map.getHexagon(12, r).setIsBlockingPath(true);
+        }
+        Assert.assertEquals(target, map.findNearest(origin, "target", 100).get());
+        Assert.assertEquals(map.getHexagon(10, 28), map.findNearestByPath(origin, h -> map.hasTag(h, "target"), 100, new HexagonMap.DefaultPathInfoSupplier()).get());
+        Assert.assertFalse(map.findNearestByPath(origin, h -> map.hasTag(h, "target"), 5, new HexagonMap.DefaultPathInfoSupplier()).isPresent());
+    }
+
+    @Test
+    public void influenceMap() throws NoHexagonFoundException {
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 30; r++) {
+            for (int q = -15; q < 30; q++) {
+                map.addHexagon(new Hexagon(q, r)).setIsBlockingPath(q == 10 && r > 2);
+            }
+        }
+        IInfluenceDecay decay = (strength, cost) -> strength / (1 + cost);
+        InfluenceMap influence = new InfluenceMap(map, new HexagonMap.DefaultPathInfoSupplier(), decay, 12);
+        int first = influence.addSource(map.getHexagon(5, 15), 10);
+        influence.addSource(map.getHexagon(15, 15), -4);
+        influence.update();
+        Assert.assertEquals(10, influence.getInfluence(map.getHexagon(5, 15)), 1e-4);        // The wall keeps the second source away
+        Assert.assertEquals(10 / 3.0, influence.getInfluence(map.getHexagon(7, 15)), 1e-4);
+        Assert.assertEquals(0, influence.getInfluence(map.getHexagon(10, 15)), 0);      // Blocking
+        Assert.assertEquals(-4 / 2.0, influence.getInfluence(map.getHexagon(14, 15)), 1e-4); // The wall is in the way of the first source
+
+        // Moving a source gives exactly the same result as adding it where it ends up
+        influence.moveSource(first, map.getHexagon(3, 20));
+        influence.update();
+        InfluenceMap fresh = new InfluenceMap(map, new HexagonMap.DefaultPathInfoSupplier(), decay, 12);
+        fresh.addSource(map.getHexagon(15, 15), -4);
+        fresh.addSource(map.getHexagon(3, 20), 10);
+        fresh.update();
+        Assert.assertEquals(fresh.getHexagons(), influence.getHexagons());
+        Assert.assertArrayEquals(fresh.getInfluences(), influence.getInfluences(), 0);
+
+        influence.removeSource(first);
+        influence.update();
+        Assert.assertEquals(0, influence.getInfluence(map.getHexagon(3, 20)), 0);
+        Assert.assertEquals(first, influence.addSource(map.getHexagon(3, 20), 1));       // The id is reused
+    }
+
+    @Test
+    public void pyramid() throws NoHexagonFoundException, NoPathFoundException {
+        for (int radius = 1; radius <= 3; radius++) {
+            HexagonPyramid pyramid = new HexagonPyramid(new HexagonMap(10), radius, 1, new HexagonMap.DefaultPathInfoSupplier());
+            HashMap<GridPosition, Integer> sizes = new HashMap<>();
+            for (int q = -40; q < 40; q++) {
+                for (int r = -40; r < 40; r++) {
+                    GridPosition cell = pyramid.toCoarser(new GridPosition(q, r));
+                    Assert.assertTrue(GridPosition.getDistance(pyramid.toFinerCenter(cell), new GridPosition(q, r)) <= radius);
+                    sizes.merge(cell, 1, Integer::sum);
+                }
+            }
+            Assert.assertEquals(Integer.valueOf(3 * radius * radius + 3 * radius + 1), sizes.get(new GridPosition(0, 0)));
+        }
+
+        HexagonMap map = new HexagonMap(10);
+        for (int r = 0; r < 60; r++) {
+            for (int q = -30; q < 60; q++) {
+                Hexagon h = map.addHexagon(new Hexagon(q, r));
+                h.setBackgroundColor(Color.GREEN);
+                h.setIsBlockingPath(q == 20 && r > 5);
+            }
+        }
+        HexagonPyramid pyramid = map.createPyramid(2, 2);
+        for (int level = 1; level <= 2; level++) {
+            Assert.assertEquals(map.getAllHexagons().size(), pyramid.getCells(level).stream().mapToInt(HexagonPyramid.Cell::getHexagonCount).sum());
+        }
+        HexagonPyramid.Cell cell = pyramid.getCell(1, map.getHexagon(5, 30));
+        Assert.assertEquals(Color.GREEN, cell.getColor());
+        Assert.assertEquals(0, cell.getBlockingRatio(), 0);
+        Assert.assertEquals(5, cell.getCost(), 1e-9);
+
+        map.getHexagon(5, 30).setBackgroundColor(Color.RED);                  // Only this cell is calculated again
+        Assert.assertNotEquals(Color.GREEN, pyramid.getCell(1, map.getHexagon(5, 30)).getColor());
+        Assert.assertEquals(Color.GREEN, pyramid.getCell(1, map.getHexagon(5, 20)).getColor());
+
+        Hexagon from = map.getHexagon(5, 30);
+        Hexagon nearby = map.getHexagon(15, 40);
+        Hexagon behindWall = map.getHexagon(35, 30);
+        int exact = GridPosition.getDistance(from.position, nearby.position);
+        int approximate = pyramid.getApproximateDistance(from, nearby, 1).getAsInt();
+        Assert.assertTrue(approximate > exact / 2 && approximate < exact * 2);
+        int aroundWall = from.getPathTo(behindWall).size();
+        Assert.assertTrue(pyramid.getApproximateDistance(from, behindWall, 1).getAsInt() > GridPosition.getDistance(from.position, behindWall.position));
+        Assert.assertTrue(pyramid.getApproximateDistance(from, behindWall, 1).getAsInt() < aroundWall * 2);
+        Assert.assertTrue(pyramid.isApproximatelyVisible(from, nearby, 1));
+        try {
+            pyramid.getApproximateDistance(from, new Hexagon(5, 30), 1);
+            Assert.fail("A Hexagon that is not in the map has no cell");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            pyramid.getApproximateDistance(from, nearby, 3);
+            Assert.fail("The pyramid has only 2 levels");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Group group = new Group();
+        map.setZoom(0.1);
+        map.render(group);
+        Assert.assertEquals(pyramid.getCells(1).size(), ((Group) group.getChildren().get(0)).getChildren().size());
+
+        // Blocking a Hexagon changes the step cost of its neighbours, which may be in other cells
+        IPathInfoSupplier varyingCosts = new IPathInfoSupplier() {
+            @Override
+            public boolean isBlockingPath(Hexagon hexagon) {
+                return hexagon.isBlockingPath();
+            }
+
+            @Override
+            public int getMovementCost(Hexagon from, Hexagon to) {
+                return 1 + Math.floorMod(to.getQ(), 3);
+            }
+        };
+        HexagonPyramid updated = map.createPyramid(2, 2, varyingCosts);
+        updated.getCells(2);          // Calculated before the change, so only the marked cells are updated
+        for (int r = 0; r < 60; r++) {
+            map.getHexagon(-5, r).setIsBlockingPath(true);
+        }
+        HexagonPyramid fresh = new HexagonPyramid(map, 2, 2, varyingCosts);
+        for (int level = 1; level <= 2; level++) {
+            Assert.assertEquals(getCellCosts(fresh, level), getCellCosts(updated, level));
+        }
+
+        // Within a cell, the estimate is in the same unit as between cells
+        IPathInfoSupplier tripleCosts = new IPathInfoSupplier() {
+            @Override
+            public boolean isBlockingPath(Hexagon hexagon) {
+                return hexagon.isBlockingPath();
+            }
+
+            @Override
+            public int getMovementCost(Hexagon from, Hexagon to) {
+                return 3;
+            }
+        };
+        HexagonPyramid expensive = map.createPyramid(2, 1, tripleCosts);
+        GridPosition center = expensive.toFinerCenter(expensive.toCoarser(from.position));
+        Hexagon twoStepsAway = map.getHexagon(center.q + 2, center.r);
+        Assert.assertEquals(6, expensive.getApproximateDistance(map.getHexagon(center.q, center.r), twoStepsAway, 1).getAsInt());
+    }
+
+    private static HashMap<GridPosition, Double> getCellCosts(HexagonPyramid pyramid, int level) {
+        HashMap<GridPosition, Double> costs = new HashMap<>();
+        for (HexagonPyramid.Cell cell : pyramid.getCells(level)) {
+            costs.put(new GridPosition(cell.getQ(), cell.getR()), cell.getCost());
+        }
+        return costs;
+    }
+
+    @Test
+    public void uniformCostSearch() throws NoHexagonFoundException {
+        IPathInfoSupplier general = new IPathInfoSupplier() {       // Costs the same, but uses the general A*
+            @Override
+            public boolean isBlockingPath(Hexagon hexagon) {
+                return hexagon.isBlockingPath();
+            }
+
+            @Override
+            public int getMovementCost(Hexagon from, Hexagon to) {
+                return 1;
+            }
+        };
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            HexagonMap map = new HexagonMap(10);
+            double obstacles = random.nextDouble() * 0.4;
+            for (int r = 0; r < 15; r++) {
+                for (int q = 0; q < 15; q++) {
+                    if (random.nextDouble() < 0.05) {
+                        continue;               // A hole in the map
+                    }
+                    map.addHexagon(new Hexagon(q - r / 2, r)).setIsBlockingPath(random.nextDouble() < obstacles);
+                }
+            }
+            List<Hexagon> hexagons = new ArrayList<>(map.getAllHexagons());
+            for (int j = 0; j < 5; j++) {
+                Hexagon start = hexagons.get(random.nextInt(hexagons.size()));
+                Hexagon destination = hexagons.get(random.nextInt(hexagons.size()));
+                int expected = -1, actual = -1;
+                try {
+                    expected = start.getPathTo(destination, general).size();
+                } catch (NoPathFoundException ignored) {
+                }
+                try {
+                    List<Hexagon> path = start.getPathTo(destination);
+                    actual = path.size();
+                    Hexagon previous = start;
+                    for (Hexagon hexagon : path) {
+                        Assert.assertEquals(1, previous.getDistance(hexagon));
+                        Assert.assertTrue(hexagon == destination || !hexagon.isBlockingPath());
+                        previous = hexagon;
+                    }
+                    Assert.assertEquals(destination, previous);
+                } catch (NoPathFoundException ignored) {
+                }
+                Assert.assertEquals(expected, actual);
+            }
+        }
+
+        HexagonMap walled = new HexagonMap(10);       // A wall with an opening at the top, far from the straight line
+        for (int r = 0; r < 40; r++) {
+            for (int q = 0; q < 40; q++) {
+                walled.addHexagon(new Hexagon(q - r / 2, r)).setIsBlockingPath(q == 20 && r > 0);
+            }
+        }
+        ArrayList<QueryMetrics> reported = new ArrayList<>();
+        walled.setQueryListener(reported::add);
+        Hexagon start = walled.getHexagon(0 - 30 / 2, 30);
+        Hexagon destination = walled.getHexagon(39 - 30 / 2, 30);
+        try {
+            start.getPathTo(destination);
+            start.getPathTo(destination, general);
+        } catch (NoPathFoundException e) {
+            Assert.fail();
+        }
+        Assert.assertEquals(reported.get(1).getResultSize(), reported.get(0).getResultSize());
+        Assert.assertTrue(reported.get(0).getNodesExpanded() * 4 < reported.get(1).getNodesExpanded());
+    }
 }